@@ -0,0 +1,649 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Analysis class searches a position for its best lines of play, for
+ * commentary and for the computer opponent. It runs an iterative-deepening
+ * alpha-beta search over the project's own board and rules: moves come from
+ * LegalMoves (so from Chessboard.ruleCheck) and leaves are scored by
+ * Evaluation. As these rules have no check or checkmate, a line that captures
+ * the king is scored as a win.
+ *
+ * The best multiPv lines (MultiPV) are kept at the root. After each depth is
+ * finished an Update with the lines, node count and speed is published to the
+ * subscribers of updates(). Publishing never blocks the search; a subscriber
+ * that falls behind misses intermediate updates. The final update (complete is
+ * true) is not dropped: once the search is over, the publisher waits up to
+ * FINAL_UPDATE_SECONDS for a subscriber that is behind to make room for it. The
+ * definitive result is the one returned by run() or by the future from
+ * start(), which is completed before the final update is published, so a slow
+ * subscriber never delays it. cancel() stops the search at any point, leaving
+ * the result of the last finished depth.
+ *
+ * Results are cached in a TranspositionTable keyed by the Zobrist hash of each
+ * position. A table handed to the constructor can be shared by searches that
+ * run one after another, so that a search of a position reached earlier in
+ * another search starts with what that search found.
+ *
+ * Usage: java Analysis multiPv maxDepth [move ...] analyses the position after
+ * the given moves and prints each update as it arrives.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class Analysis {
+
+	/** The score for capturing the king now. Faster wins score higher. */
+	public static final int MATE = 100000;
+
+	/** How long the final update waits for room at a subscriber that is behind. */
+	public static final long FINAL_UPDATE_SECONDS = 10;
+
+	static final int INFINITY = 1000000;
+	static final int MAX_PLY = 64;
+
+	/**
+	 * One line of play: its score for the side to move at the root, and its
+	 * moves, each packed as (from square << 6 | to square) with squares numbered
+	 * i * 8 + j.
+	 */
+	public static final class Line {
+		public final int score;
+		public final int[] pv;
+
+		Line(int score, int[] pv) {
+			this.score = score;
+			this.pv = pv;
+		}
+
+		public int firstMove() {
+			return pv[0];
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(Analysis.scoreText(score));
+			for (int move : pv) {
+				text.append(' ').append(Analysis.moveText(move));
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * The state of the analysis after a depth has been finished.
+	 */
+	public static final class Update {
+		public final int depth;
+		public final List<Line> lines;
+		public final long nodes;
+		public final long nanos;
+		public final boolean complete;
+
+		Update(int depth, List<Line> lines, long nodes, long nanos, boolean complete) {
+			this.depth = depth;
+			this.lines = lines;
+			this.nodes = nodes;
+			this.nanos = nanos;
+			this.complete = complete;
+		}
+
+		/**
+		 * @return The best line, or null if there are no legal moves.
+		 */
+		public Line best() {
+			return lines.isEmpty() ? null : lines.get(0);
+		}
+
+		public long nodesPerSecond() {
+			return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(String.format("depth %d nodes %d nps %d%s", depth, nodes,
+					nodesPerSecond(), complete ? " (final)" : ""));
+			for (int k = 0; k < lines.size(); k++) {
+				text.append(String.format("%n  %d. %s", k + 1, lines.get(k)));
+			}
+			return text.toString();
+		}
+	}
+
+	private final Chessboard.Chessmen[][] chessboard = new Chessboard.Chessmen[8][8];
+	private final boolean whiteToMove;
+	private final int multiPv;
+	private final int maxDepth;
+	private final Evaluation evaluation;
+	private final TranspositionTable table;
+	private long hash;
+
+	private final LegalMoves[] legalMoves = new LegalMoves[MAX_PLY];
+	private final int[][] moves = new int[MAX_PLY][256];
+	private final int[][] order = new int[MAX_PLY][256];
+	private final int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+	private final int[] pvLength = new int[MAX_PLY + 1];
+
+	private final SubmissionPublisher<Update> publisher = new SubmissionPublisher<>();
+
+	private volatile boolean stopped;
+	private volatile Update latest;
+	private long nodes;
+
+	/**
+	 * Prepares to analyse a position. The position is copied, so the caller may
+	 * go on changing chessboard.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The position to analyse.
+	 * @param whiteToMove
+	 *            true if it is White's (Player 1's) turn.
+	 * @param multiPv
+	 *            The number of best lines to report.
+	 * @param maxDepth
+	 *            The depth, in plies, at which the search stops by itself.
+	 */
+	public Analysis(Chessboard.Chessmen[][] chessboard, boolean whiteToMove, int multiPv, int maxDepth) {
+		this(chessboard, whiteToMove, multiPv, maxDepth, new TranspositionTable());
+	}
+
+	/**
+	 * Prepares to analyse a position, caching results in the given table.
+	 *
+	 * @param table
+	 *            The transposition table. It must not be used by another search
+	 *            while this one runs.
+	 */
+	public Analysis(Chessboard.Chessmen[][] chessboard, boolean whiteToMove, int multiPv, int maxDepth,
+			TranspositionTable table) {
+		for (int i = 0; i < 8; i++) {
+			System.arraycopy(chessboard[i], 0, this.chessboard[i], 0, 8);
+		}
+		this.whiteToMove = whiteToMove;
+		this.multiPv = Math.max(1, multiPv);
+		this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+		this.evaluation = new Evaluation(this.chessboard);
+		this.table = table;
+		this.hash = Zobrist.hash(this.chessboard, whiteToMove);
+		for (int ply = 0; ply < MAX_PLY; ply++) {
+			legalMoves[ply] = new LegalMoves();
+		}
+		this.latest = new Update(0, Collections.<Line>emptyList(), 0, 0, false);
+	}
+
+	/**
+	 * @return The publisher of per-depth updates. Subscribe before starting the
+	 *         search to see every update.
+	 */
+	public Flow.Publisher<Update> updates() {
+		return publisher;
+	}
+
+	/**
+	 * Runs the search on a new background thread.
+	 *
+	 * @return The final update, completed when the search finishes or is
+	 *         cancelled, and before the update is published.
+	 */
+	public CompletableFuture<Update> start() {
+		CompletableFuture<Update> result = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			Update last;
+			try {
+				last = deepen();
+			} catch (Throwable e) {
+				publisher.closeExceptionally(e);
+				result.completeExceptionally(e);
+				return;
+			}
+			result.complete(last);
+			publishFinal(last);
+		}, "analysis");
+		thread.setDaemon(true);
+		thread.start();
+		return result;
+	}
+
+	/**
+	 * Stops the search as soon as possible. Safe to call from any thread, at any
+	 * time.
+	 */
+	public void cancel() {
+		stopped = true;
+	}
+
+	public boolean isCancelled() {
+		return stopped;
+	}
+
+	/**
+	 * @return The update for the deepest depth finished so far.
+	 */
+	public Update latest() {
+		return latest;
+	}
+
+	/**
+	 * Runs the search on the calling thread.
+	 *
+	 * @return The final update.
+	 */
+	public Update run() {
+		Update last;
+		try {
+			last = deepen();
+		} catch (RuntimeException | Error e) {
+			publisher.closeExceptionally(e);
+			throw e;
+		}
+		publishFinal(last);
+		return last;
+	}
+
+	/*
+	 * Publishes the final update, waiting for room at subscribers that are behind,
+	 * and closes the publisher.
+	 */
+	private void publishFinal(Update last) {
+		try {
+			publisher.offer(last, FINAL_UPDATE_SECONDS, TimeUnit.SECONDS, null);
+		} finally {
+			publisher.close();
+		}
+	}
+
+	/*
+	 * Iterative deepening. Publishes an update after each depth and returns the
+	 * final one, without publishing it.
+	 */
+	private Update deepen() {
+		long start = System.nanoTime();
+		int rootCount = generate(0, whiteToMove, false);
+		int[] rootMoves = new int[rootCount];
+		int[] rootScores = new int[rootMoves.length];
+		for (int k = 0; k < rootMoves.length; k++) {
+			rootMoves[k] = moves[0][k];
+		}
+
+		for (int depth = 1; depth <= maxDepth && !stopped && rootMoves.length > 0; depth++) {
+			List<Line> lines = new ArrayList<>();
+			for (int k = 0; k < rootMoves.length; k++) {
+				int bound = lines.size() < multiPv ? -INFINITY : lines.get(multiPv - 1).score;
+				int move = rootMoves[k];
+				int score;
+
+				Chessboard.Chessmen captured = make(move);
+				if (isKing(captured) && Chessboard.isOwn(captured, !whiteToMove)) {
+					score = MATE;
+					pvLength[1] = 1;
+				} else {
+					score = -search(depth - 1, -INFINITY, -bound, 1, !whiteToMove);
+				}
+				unmake(move, captured);
+				if (stopped) {
+					break;
+				}
+
+				rootScores[k] = score;
+				if (score > bound) {
+					int[] pv = new int[pvLength[1]];
+					pv[0] = move;
+					for (int p = 1; p < pv.length; p++) {
+						pv[p] = pvTable[1][p];
+					}
+					insert(lines, new Line(score, pv));
+				}
+			}
+			if (stopped) {
+				break;
+			}
+
+			sortByScore(rootMoves, rootScores);
+			latest = new Update(depth, Collections.unmodifiableList(lines), nodes, System.nanoTime() - start,
+					false);
+			publisher.offer(latest, null);
+			if (Math.abs(lines.get(0).score) >= MATE - MAX_PLY) {
+				break; // A forced win or loss has been found; deeper won't change it.
+			}
+		}
+
+		Update last = latest;
+		latest = new Update(last.depth, last.lines, nodes, System.nanoTime() - start, true);
+		return latest;
+	}
+
+	/*
+	 * Negamax alpha-beta. Returns the score for the side to move.
+	 */
+	private int search(int depth, int alpha, int beta, int ply, boolean white) {
+		pvLength[ply] = ply;
+		if (stopped) {
+			return 0;
+		}
+		if (depth <= 0) {
+			return quiesce(alpha, beta, ply, white);
+		}
+		nodes++;
+		if (ply >= MAX_PLY - 1) {
+			return evaluation.evaluate(chessboard, white);
+		}
+
+		int hashMove = -1;
+		long entry = table.probe(hash);
+		if (entry != TranspositionTable.MISS) {
+			hashMove = TranspositionTable.move(entry);
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+					return score;
+				}
+			}
+		}
+
+		int count = generate(ply, white, false);
+		if (count < 0) {
+			return MATE - ply; // The king can be taken.
+		}
+		if (count == 0) {
+			return 0; // No legal moves.
+		}
+		promote(ply, count, hashMove);
+
+		int alphaIn = alpha;
+		int best = -INFINITY;
+		int bestMove = -1;
+		for (int k = 0; k < count; k++) {
+			int move = moves[ply][k];
+			Chessboard.Chessmen captured = make(move);
+			int score = -search(depth - 1, -beta, -alpha, ply + 1, !white);
+			unmake(move, captured);
+			if (stopped) {
+				return 0;
+			}
+
+			if (score > best) {
+				best = score;
+				bestMove = move;
+				if (score > alpha) {
+					alpha = score;
+					updatePv(ply, move);
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+
+		int bound = best >= beta ? TranspositionTable.LOWER_BOUND
+				: best > alphaIn ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+		table.store(hash, depth, bound, toTable(best, ply), bestMove);
+		return best;
+	}
+
+	/*
+	 * Moves the move from the transposition table, if it is in the list, to the
+	 * front.
+	 */
+	private void promote(int ply, int count, int hashMove) {
+		if (hashMove < 0) {
+			return;
+		}
+		int[] list = moves[ply];
+		for (int k = 0; k < count; k++) {
+			if (list[k] == hashMove) {
+				System.arraycopy(list, 0, list, 1, k);
+				list[0] = hashMove;
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Win and loss scores count plies from the root, so they are stored counting
+	 * from the position instead and converted back when read.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score >= MATE - MAX_PLY) {
+			return score + ply;
+		} else if (score <= -MATE + MAX_PLY) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= MATE - MAX_PLY) {
+			return score - ply;
+		} else if (score <= -MATE + MAX_PLY) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	/*
+	 * Searches captures only, so that leaves are not scored in the middle of an
+	 * exchange.
+	 */
+	private int quiesce(int alpha, int beta, int ply, boolean white) {
+		pvLength[ply] = ply;
+		nodes++;
+		int standPat = evaluation.evaluate(chessboard, white);
+		if (standPat >= beta || ply >= MAX_PLY - 1) {
+			return standPat;
+		}
+		if (standPat > alpha) {
+			alpha = standPat;
+		}
+
+		int count = generate(ply, white, true);
+		if (count < 0) {
+			return MATE - ply;
+		}
+		for (int k = 0; k < count; k++) {
+			int move = moves[ply][k];
+			Chessboard.Chessmen captured = make(move);
+			int score = -quiesce(-beta, -alpha, ply + 1, !white);
+			unmake(move, captured);
+			if (stopped) {
+				return 0;
+			}
+			if (score > alpha) {
+				alpha = score;
+				updatePv(ply, move);
+				if (alpha >= beta) {
+					break;
+				}
+			}
+		}
+		return alpha;
+	}
+
+	/*
+	 * Fills moves[ply] with the legal moves (or only the captures), best
+	 * captures first. Returns the number of moves, or -1 if one of them takes the
+	 * king. At the root the full list is always returned, with any move that takes
+	 * the king first.
+	 */
+	private int generate(int ply, boolean white, boolean capturesOnly) {
+		LegalMoves legal = legalMoves[ply];
+		legal.compute(chessboard, white);
+		int[] list = moves[ply];
+		int[] keys = order[ply];
+		int count = 0;
+
+		for (int from = 0; from < 64; from++) {
+			long mask = legal.destinations(from >> 3, from & 7);
+			while (mask != 0) {
+				int to = Long.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+
+				// The knight rule lets a knight land on its own side's pieces, which is
+				// never a capture.
+				Chessboard.Chessmen victim = chessboard[to >> 3][to & 7];
+				boolean capture = Chessboard.isOwn(victim, !white);
+				if (capture && isKing(victim) && ply > 0) {
+					return -1;
+				}
+				if (capturesOnly && !capture) {
+					continue;
+				}
+				// Most valuable victim, then least valuable attacker.
+				int key;
+				if (!capture) {
+					key = 0;
+				} else if (isKing(victim)) {
+					key = Integer.MAX_VALUE;
+				} else {
+					key = 16 * Evaluation.MATERIAL_MG[Evaluation.typeOf(victim)]
+							- Evaluation.MATERIAL_MG[Evaluation.typeOf(chessboard[from >> 3][from & 7])] / 10;
+				}
+				list[count] = from << 6 | to;
+				keys[count] = key;
+				count++;
+			}
+		}
+
+		// Insertion sort: the lists are short and mostly quiet moves with key 0.
+		for (int i = 1; i < count; i++) {
+			int move = list[i], key = keys[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] < key) {
+				list[j + 1] = list[j];
+				keys[j + 1] = keys[j];
+				j--;
+			}
+			list[j + 1] = move;
+			keys[j + 1] = key;
+		}
+		return count;
+	}
+
+	private Chessboard.Chessmen make(int move) {
+		int from = move >> 6, to = move & 63;
+		Chessboard.Chessmen moving = chessboard[from >> 3][from & 7];
+		Chessboard.Chessmen captured = chessboard[to >> 3][to & 7];
+		evaluation.onMove(moving, from >> 3, from & 7, captured, to >> 3, to & 7);
+		hash ^= Zobrist.moveKey(moving, captured, from >> 3, from & 7, to >> 3, to & 7);
+		chessboard[to >> 3][to & 7] = moving;
+		chessboard[from >> 3][from & 7] = Chessboard.Chessmen.EMPTY;
+		return captured;
+	}
+
+	private void unmake(int move, Chessboard.Chessmen captured) {
+		int from = move >> 6, to = move & 63;
+		Chessboard.Chessmen moving = chessboard[to >> 3][to & 7];
+		evaluation.onUndo(moving, from >> 3, from & 7, captured, to >> 3, to & 7);
+		hash ^= Zobrist.moveKey(moving, captured, from >> 3, from & 7, to >> 3, to & 7);
+		chessboard[from >> 3][from & 7] = moving;
+		chessboard[to >> 3][to & 7] = captured;
+	}
+
+	private void updatePv(int ply, int move) {
+		pvTable[ply][ply] = move;
+		for (int p = ply + 1; p < pvLength[ply + 1]; p++) {
+			pvTable[ply][p] = pvTable[ply + 1][p];
+		}
+		pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+	}
+
+	private void insert(List<Line> lines, Line line) {
+		int k = 0;
+		while (k < lines.size() && lines.get(k).score >= line.score) {
+			k++;
+		}
+		lines.add(k, line);
+		if (lines.size() > multiPv) {
+			lines.remove(lines.size() - 1);
+		}
+	}
+
+	/*
+	 * Orders the root moves best first for the next iteration. Stable, so equal
+	 * scores keep their order.
+	 */
+	private static void sortByScore(int[] rootMoves, int[] rootScores) {
+		for (int i = 1; i < rootMoves.length; i++) {
+			int move = rootMoves[i], score = rootScores[i];
+			int j = i - 1;
+			while (j >= 0 && rootScores[j] < score) {
+				rootMoves[j + 1] = rootMoves[j];
+				rootScores[j + 1] = rootScores[j];
+				j--;
+			}
+			rootMoves[j + 1] = move;
+			rootScores[j + 1] = score;
+		}
+	}
+
+	private static boolean isKing(Chessboard.Chessmen piece) {
+		return piece == Chessboard.Chessmen.WHITE_KING || piece == Chessboard.Chessmen.BLACK_KING;
+	}
+
+	/**
+	 * @return The move in the form players type it, e.g. "e2 to e4".
+	 */
+	public static String moveText(int move) {
+		int from = move >> 6, to = move & 63;
+		return Chessboard.square(from >> 3, from & 7) + " to " + Chessboard.square(to >> 3, to & 7);
+	}
+
+	/**
+	 * @return The score in pawns, or "win in N"/"loss in N" plies for a line that
+	 *         takes a king.
+	 */
+	public static String scoreText(int score) {
+		if (score >= MATE - MAX_PLY) {
+			return "win in " + (MATE - score);
+		} else if (score <= -MATE + MAX_PLY) {
+			return "loss in " + (MATE + score);
+		}
+		return String.format("%+.2f", score / 100.0);
+	}
+
+	/**
+	 * Analyses the position after the given moves, printing each update.
+	 *
+	 * @param args
+	 *            multiPv, maxDepth and then the moves, White first.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: java Analysis multiPv maxDepth [move ...]");
+			System.exit(2);
+		}
+		Chessboard.Chessmen[][] chessboard = Chessboard.newBoard();
+		for (int k = 2; k < args.length; k++) {
+			Chessboard.move(chessboard, args[k]);
+		}
+
+		Analysis analysis = new Analysis(chessboard, args.length % 2 == 0, Integer.parseInt(args[0]),
+				Integer.parseInt(args[1]));
+		CompletableFuture<Void> printed = new CompletableFuture<>();
+		analysis.updates().subscribe(new Flow.Subscriber<Update>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			public void onNext(Update update) {
+				System.out.println(update);
+			}
+
+			public void onError(Throwable e) {
+				printed.completeExceptionally(e);
+			}
+
+			public void onComplete() {
+				printed.complete(null);
+			}
+		});
+		analysis.start().get();
+		printed.get();
+	}
+}
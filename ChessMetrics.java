@@ -0,0 +1,306 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * The ChessMetrics class keeps low-overhead timing metrics for the hot paths of
+ * the game loop (parsing, rule checks, board updates, printing and reading from
+ * the console). Metrics are switched off unless the JVM is started with
+ * -Dchess.metrics=true, in which case every timer is also published over JMX
+ * under "chess:type=Metrics". Setting -Dchess.metrics.dumpSeconds=N prints a
+ * text report to the error stream every N seconds.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class ChessMetrics {
+
+	/**
+	 * True if metrics were switched on at startup. This is a constant so the JIT
+	 * can remove the timing calls entirely when it is false.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("chess.metrics");
+
+	/**
+	 * The attributes of a Timer as seen through JMX. All times are in nanoseconds.
+	 */
+	public interface TimerMBean {
+		long getCount();
+
+		long getTotalNanos();
+
+		long getMeanNanos();
+
+		long getMaxNanos();
+
+		long getP50Nanos();
+
+		long getP99Nanos();
+
+		long getP999Nanos();
+
+		void reset();
+	}
+
+	/**
+	 * Creates the enumerated type Timer for each part of the game loop that is
+	 * measured. Each timer keeps a count, a total and a latency histogram.
+	 * LEGAL_MOVES times looking a typed move up in the position's legal moves,
+	 * including working them out the first time; RULE_CHECK then only times the
+	 * rule check that explains why a rejected move is not allowed.
+	 */
+	public enum Timer implements TimerMBean {
+		POSITION("position"), LEGAL_MOVES("legalMoves"), RULE_CHECK("ruleCheck"), MOVE("move"), PRINT_BOARD(
+				"printBoard"), CONSOLE_READ("consoleRead");
+
+		private final String label;
+
+		Timer(String label) {
+			this.label = label;
+		}
+
+		public String label() {
+			return label;
+		}
+
+		private Stats stats() {
+			return Stats.ALL[ordinal()];
+		}
+
+		void record(long nanos) {
+			stats().record(nanos);
+		}
+
+		public long getCount() {
+			return stats().count.sum();
+		}
+
+		public long getTotalNanos() {
+			return stats().total.sum();
+		}
+
+		public long getMeanNanos() {
+			long n = stats().count.sum();
+			return n == 0 ? 0 : stats().total.sum() / n;
+		}
+
+		public long getMaxNanos() {
+			return stats().histogram.max();
+		}
+
+		public long getP50Nanos() {
+			return stats().histogram.percentile(50.0);
+		}
+
+		public long getP99Nanos() {
+			return stats().histogram.percentile(99.0);
+		}
+
+		public long getP999Nanos() {
+			return stats().histogram.percentile(99.9);
+		}
+
+		public void reset() {
+			stats().reset();
+		}
+	}
+
+	/**
+	 * The counters behind each Timer. They are held apart from the enum so that
+	 * they, and the atomic classes they use, are only initialized on first use:
+	 * every call site names a Timer, even when metrics are off.
+	 */
+	private static final class Stats {
+		static final Stats[] ALL = new Stats[Timer.values().length];
+
+		static {
+			for (int k = 0; k < ALL.length; k++) {
+				ALL[k] = new Stats();
+			}
+		}
+
+		final LongAdder count = new LongAdder();
+		final LongAdder total = new LongAdder();
+		final Histogram histogram = new Histogram();
+
+		void record(long nanos) {
+			count.increment();
+			total.add(nanos);
+			histogram.record(nanos);
+		}
+
+		void reset() {
+			count.reset();
+			total.reset();
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * A fixed-size latency histogram in the style of HdrHistogram. Values are
+	 * bucketed by their highest set bit and then split into SUB_BUCKETS linear
+	 * sub-buckets, which keeps the relative error below 1/SUB_BUCKETS at every
+	 * magnitude without any allocation on the recording path.
+	 */
+	static final class Histogram {
+
+		private static final int SUB_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLongArray maxHolder = new AtomicLongArray(1);
+
+		void record(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			buckets.incrementAndGet(indexOf(value));
+
+			long max = maxHolder.get(0);
+			while (value > max && !maxHolder.compareAndSet(0, max, value)) {
+				max = maxHolder.get(0);
+			}
+		}
+
+		static int indexOf(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value; // Small values are recorded exactly
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		static long highestValueOf(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+			long sub = index % SUB_BUCKETS;
+			long low = (1L << exponent) | (sub << (exponent - SUB_BITS));
+			return low + (1L << (exponent - SUB_BITS)) - 1;
+		}
+
+		long percentile(double percentile) {
+			long total = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				total += buckets.get(i);
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= target) {
+					return Math.min(highestValueOf(i), max());
+				}
+			}
+			return max();
+		}
+
+		long max() {
+			return maxHolder.get(0);
+		}
+
+		void reset() {
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+			maxHolder.set(0, 0);
+		}
+	}
+
+	static {
+		if (ENABLED) {
+			Publisher.start();
+		}
+	}
+
+	private ChessMetrics() {
+	}
+
+	/**
+	 * Starts timing an operation.
+	 *
+	 * @return The start time to hand to stop, or 0 if metrics are switched off.
+	 */
+	public static long start() {
+		return ENABLED ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Stops timing an operation and records it against the given timer. Does
+	 * nothing if metrics are switched off.
+	 *
+	 * @param timer
+	 *            The part of the game loop being measured.
+	 * @param start
+	 *            The value returned by start when the operation began.
+	 */
+	public static void stop(Timer timer, long start) {
+		if (ENABLED) {
+			timer.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Writes a one-line summary of every timer to the given stream.
+	 *
+	 * @param out
+	 *            Where the report is written.
+	 */
+	public static void dump(PrintStream out) {
+		StringBuilder report = new StringBuilder("chess metrics (ns):\n");
+		for (Timer timer : Timer.values()) {
+			report.append(String.format("  %-12s count=%d mean=%d p50=%d p99=%d p99.9=%d max=%d%n", timer.label(),
+					timer.getCount(), timer.getMeanNanos(), timer.getP50Nanos(), timer.getP99Nanos(),
+					timer.getP999Nanos(), timer.getMaxNanos()));
+		}
+		out.print(report);
+	}
+
+	/*
+	 * Publishes the timers over JMX and schedules the periodic dump. A separate
+	 * class, so that the JMX classes are not even loaded when metrics are off.
+	 */
+	private static final class Publisher {
+
+		static void start() {
+			register();
+			long dumpSeconds = Long.getLong("chess.metrics.dumpSeconds", 0);
+			if (dumpSeconds > 0) {
+				ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "chess-metrics-dump");
+					t.setDaemon(true);
+					return t;
+				});
+				dumper.scheduleAtFixedRate(() -> dump(System.err), dumpSeconds, dumpSeconds, TimeUnit.SECONDS);
+			}
+		}
+
+		private static void register() {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (Timer timer : Timer.values()) {
+				try {
+					ObjectName name = new ObjectName("chess:type=Metrics,name=" + timer.label());
+					if (!server.isRegistered(name)) {
+						server.registerMBean(new StandardMBean(timer, TimerMBean.class), name);
+					}
+				} catch (JMException e) {
+					System.err.println("Could not register metrics for " + timer.label() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -1,4 +1,7 @@
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
 
 /**
  * The Chessboard class creates a two-player chess game. Players take it in
@@ -35,10 +38,12 @@ public class Chessboard {
 	 */
 	public static int[] position(Chessmen[][] chessboard, String move) {
 
+		long start = ChessMetrics.start();
+
 		String initRow, initCol, finRow, finCol;
 
 		// Check the move makes sense:
-		if (move.replaceAll("\\s+", "").length() == 0) {
+		if (move.isBlank()) {
 			initRow = "nonsense";
 			initCol = "nonsense";
 			finRow = "nonsense";
@@ -201,6 +206,8 @@ public class Chessboard {
 		posVector[1] = initJ;
 		posVector[2] = finI;
 		posVector[3] = finJ;
+
+		ChessMetrics.stop(ChessMetrics.Timer.POSITION, start);
 		return posVector;
 	}
 
@@ -216,6 +223,23 @@ public class Chessboard {
 	 *            The player's input as a String.
 	 */
 	public static void move(Chessmen[][] chessboard, String move) {
+		Chessboard.move(chessboard, move, null);
+	}
+
+	/**
+	 * As move, but also keeps an Evaluation of the position up to date so that it
+	 * never has to be recomputed from the whole board.
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param move
+	 *            The player's input as a String.
+	 * @param evaluation
+	 *            The evaluation of chessboard before the move, or null.
+	 */
+	public static void move(Chessmen[][] chessboard, String move, Evaluation evaluation) {
+
+		long start = ChessMetrics.start();
 
 		int[] posVector = Chessboard.position(chessboard, move);
 		int initI = posVector[0];
@@ -223,10 +247,15 @@ public class Chessboard {
 		int finI = posVector[2];
 		int finJ = posVector[3];
 
+		if (evaluation != null) {
+			evaluation.onMove(chessboard[initI][initJ], initI, initJ, chessboard[finI][finJ], finI, finJ);
+		}
+
 		chessboard[finI][finJ] = chessboard[initI][initJ]; // Move the piece to its new position
 
 		chessboard[initI][initJ] = Chessmen.EMPTY; // Clears the old position
 
+		ChessMetrics.stop(ChessMetrics.Timer.MOVE, start);
 	}
 
 	/**
@@ -240,57 +269,103 @@ public class Chessboard {
 	 */
 	public static void printBoard(Chessmen[][] chessboard) {
 
-		System.out.println("\ta\tb\tc\td\te\tf\tg\th\n");
+		long start = ChessMetrics.start();
+
+		// Built up and printed in one go, with plain appends rather than printf, which
+		// would load the formatter and regular expressions at startup.
+		String newLine = System.lineSeparator();
+		StringBuilder board = new StringBuilder(1024);
+		board.append("\ta\tb\tc\td\te\tf\tg\th\n").append(newLine);
 		for (int i = 7; i >= 0; i--) {
-			System.out.printf((i + 1) + ".\t");
+			board.append(i + 1).append(".\t");
 			for (int j = 0; j < 8; j++) {
 
 				switch (chessboard[i][j]) {
 				case WHITE_KING:
-					System.out.printf("\u2654\t");
+					board.append("\u2654\t");
 					continue;
 				case WHITE_QUEEN:
-					System.out.printf("\u2655\t");
+					board.append("\u2655\t");
 					continue;
 				case WHITE_ROOK:
-					System.out.printf("\u2656\t");
+					board.append("\u2656\t");
 					continue;
 				case WHITE_BISHOP:
-					System.out.printf("\u2657\t");
+					board.append("\u2657\t");
 					continue;
 				case WHITE_KNIGHT:
-					System.out.printf("\u2658\t");
+					board.append("\u2658\t");
 					continue;
 				case WHITE_PAWN:
-					System.out.printf("\u2659\t");
+					board.append("\u2659\t");
 					continue;
 				case BLACK_KING:
-					System.out.printf("\u265A\t");
+					board.append("\u265A\t");
 					continue;
 				case BLACK_QUEEN:
-					System.out.printf("\u265B\t");
+					board.append("\u265B\t");
 					continue;
 				case BLACK_ROOK:
-					System.out.printf("\u265C\t");
+					board.append("\u265C\t");
 					continue;
 				case BLACK_BISHOP:
-					System.out.printf("\u265D\t");
+					board.append("\u265D\t");
 					continue;
 				case BLACK_KNIGHT:
-					System.out.printf("\u265E\t");
+					board.append("\u265E\t");
 					continue;
 				case BLACK_PAWN:
-					System.out.printf("\u265F\t");
+					board.append("\u265F\t");
 					continue;
 				default:
-					System.out.printf("\t");
+					board.append("\t");
 					continue;
 				}
 
 			}
-			System.out.println("\n\n");
+			board.append("\n\n").append(newLine);
+		}
+		board.append("\ta\tb\tc\td\te\tf\tg\th\n").append(newLine);
+		System.out.print(board);
+
+		ChessMetrics.stop(ChessMetrics.Timer.PRINT_BOARD, start);
+	}
+
+	/**
+	 * Creates the enumerated type RuleCheck for the outcome of checking a move
+	 * against the rules. LEGAL means the move may be played; every other value
+	 * names the rule that was broken and carries the message shown to the player.
+	 */
+	public enum RuleCheck {
+		LEGAL(""), //
+		INVALID_COORDINATES("Input coordinates are invalid.  Please type them again, in the form 'a6 to c4'."), //
+		NOT_OWN_PIECE("Non-%s piece selected during Player %d's turn. Try again."), //
+		SAME_CELL("Attempt to move to the same cell not allowed. Try again."), //
+		OCCUPIED_BY_OWN_PIECE("Destination cell is already occupied by a %s piece. Try again."), //
+		PAWN_MOVE("Not a valid pawn move. Try again."), //
+		KNIGHT_MOVE("Not a valid knight move. Try again."), //
+		ROOK_MOVE("Not a valid move for a rook. Try again."), //
+		ROOK_BLOCKED("Something is in the way of your rook. Try again."), //
+		BISHOP_MOVE("Not a valid bishop move. Try again."), //
+		BISHOP_BLOCKED("Something is in the way of your bishop. Try again."), //
+		QUEEN_MOVE("Not a valid move for a queen. Try again."), //
+		QUEEN_BLOCKED("Something is in the way of your queen. Try again."), //
+		KING_MOVE("Not a valid move for a king. Try again.");
+
+		private final String message;
+
+		RuleCheck(String message) {
+			this.message = message;
+		}
+
+		/**
+		 * @param white
+		 *            true if the move was White's (Player 1's).
+		 * @return The message shown to the player.
+		 */
+		public String message(boolean white) {
+			return String.format(message, white ? "white" : "black", white ? 1 : 2);
 		}
-		System.out.println("\ta\tb\tc\td\te\tf\tg\th\n");
 	}
 
 	/**
@@ -306,255 +381,7 @@ public class Chessboard {
 	 *         rules.
 	 */
 	public static boolean ruleCheckPlayer1(Chessmen[][] chessboard, String move) {
-		/*
-		 * In the same way that the method "move" works, we will begin by using the
-		 * position method to get initial and final coordinates of the String move.
-		 */
-
-		int[] posVector = Chessboard.position(chessboard, move);
-		int initI = posVector[0];
-		int initJ = posVector[1];
-		int finI = posVector[2];
-		int finJ = posVector[3];
-
-		// Check coordinates are within bounds:
-		if (initI > 7 || initI < 0 || initJ > 7 || initJ < 0 || finI > 7 || finI < 0 || finJ > 7 || finJ < 0) {
-			System.err.println("Input coordinates are invalid.  Please type them again, in the form 'a6 to c4'.");
-			return false;
-		}
-
-		/*
-		 * RULES PLAYER 1!! Moves must now be tested for each piece. In short, the rules
-		 * that will be used are: Pawn: 1. On first go can move forward one or two
-		 * places. 2. On subsequent goes can only move forward one place. 3. Cannot move
-		 * forward if the place ahead of it is blocked. 4. Can only take diagonally.
-		 * 
-		 * Rook: 1. Can move horizontally or vertically by any distance, unless
-		 * something is in the way.
-		 * 
-		 * Knight: 1. Must either move vertically 3, horizontally 1; or horizontally 3,
-		 * vertically 1.
-		 * 
-		 * Bishop: 1. Can move diagonally any distance, unless something is in the way.
-		 * 
-		 * Queen: 1. Can move any distance in any straight line direction, unless
-		 * something is in the way.
-		 * 
-		 * King: 1. Can move one place in any direction, unless something is in the way.
-		 */
-
-		switch (chessboard[initI][initJ]) {
-		case WHITE_PAWN:
-			System.out.println("White pawn selected.");
-
-			if (finI - initI == 1 && initJ == finJ && chessboard[finI][finJ] == Chessmen.EMPTY) {
-				return true; // Ordinary move
-			} else if (finI - initI == 1 && Math.abs(initJ - finJ) == 1 && chessboard[finI][finJ] != Chessmen.EMPTY
-					&& chessboard[finI][finJ] != Chessmen.WHITE_PAWN && chessboard[finI][finJ] != Chessmen.WHITE_KING
-					&& chessboard[finI][finJ] != Chessmen.WHITE_QUEEN && chessboard[finI][finJ] != Chessmen.WHITE_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.WHITE_ROOK) {
-				return true; // Taking move
-			} else if (initI == 1 && (finI - initI == 1 || finI - initI == 2) && initJ == finJ
-					&& chessboard[initI + 1][initJ] == Chessmen.EMPTY
-					&& chessboard[initI + 2][initJ] == Chessmen.EMPTY) {
-				return true; // Starting move
-			} else {
-				System.err.println("Not a valid pawn move. Try again.");
-				return false;
-			}
-
-		case WHITE_KNIGHT:
-			System.out.println("White knight selected.");
-
-			if ((Math.abs(initI - finI) == 2) && (Math.abs(initJ - finJ) == 1)) {
-				return true;
-			} else if ((Math.abs(initI - finI) == 1) && (Math.abs(initJ - finJ) == 2)) {
-				return true;
-			} else {
-				System.err.println("Not a valid knight move. Try again.");
-				return false;
-			}
-
-		case WHITE_ROOK:
-			System.out.println("White rook selected.");
-
-			// Attempt to move to the same cell:
-			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
-			}
-
-			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.WHITE_PAWN || chessboard[finI][finJ] == Chessmen.WHITE_ROOK
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.WHITE_BISHOP || chessboard[finI][finJ] == Chessmen.WHITE_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KING) {
-				System.err.println("Destination cell is already occupied by a white piece. Try again.");
-				return false;
-			}
-
-			// Check if path between is free:
-			if (initI == finI) {
-				// Rows are same, so horizontal move
-				int jump = (initJ < finJ) ? 1 : -1;
-
-				for (int j = initJ + jump; j != finJ; j += jump) {
-					if (chessboard[initI][j] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your rook. Try again.");
-						return false;
-					}
-				}
-			} else if (initJ == finJ) {
-				// Cols are same, so vertical move
-				int jump = (initI < finI) ? 1 : -1;
-
-				for (int i = initI + jump; i != finI; i += jump) {
-					if (chessboard[i][initJ] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your rook. Try again.");
-						return false;
-					}
-				}
-			} else {
-				// Not a valid move
-				System.err.println("Not a valid move for a rook. Try again.");
-				return false;
-			}
-
-			return true;
-
-		case WHITE_BISHOP:
-			System.out.println("White bishop selected.");
-
-			// Attempt to move to the same cell:
-			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
-			}
-
-			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.WHITE_PAWN || chessboard[finI][finJ] == Chessmen.WHITE_ROOK
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.WHITE_BISHOP || chessboard[finI][finJ] == Chessmen.WHITE_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KING) {
-				System.err.println("Destination cell is already occupied by a white piece. Try again.");
-				return false;
-			}
-
-			// Check that the difference between rows and columns is the same (i.e. bishop
-			// is moving diagonally)
-			// Will then check that there is no collision on the path between.
-			if (Math.abs(initI - finI) == Math.abs(initJ - finJ)) {
-
-				int jumpI = (initI < finI) ? 1 : -1;
-				int jumpJ = (initJ < finJ) ? 1 : -1;
-
-				for (int i = initI + jumpI; i != finI; i += jumpI) {
-					for (int j = initJ + jumpJ; j != finJ; j += jumpJ)
-
-						if (chessboard[i][j] != Chessmen.EMPTY && Math.abs(initI - i) == Math.abs(initJ - j)) {
-							System.err.println("Something is in the way of your bishop. Try again.");
-							return false;
-						}
-				}
-			} else {
-				System.err.println("Not a valid Bishop move. Try again.");
-				return false;
-			}
-
-			return true;
-
-		case WHITE_QUEEN:
-			System.out.println("White queen selected.");
-
-			// Attempt to move to the same cell:
-			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
-			}
-
-			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.WHITE_PAWN || chessboard[finI][finJ] == Chessmen.WHITE_ROOK
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.WHITE_BISHOP || chessboard[finI][finJ] == Chessmen.WHITE_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.WHITE_KING) {
-				System.err.println("Destination cell is already occupied by a white piece. Try again.");
-				return false;
-			}
-
-			// Will check that there is no collision on the path between.
-			if (Math.abs(initI - finI) == Math.abs(initJ - finJ)) {
-				// Diagonal move
-				int jumpI = (initI < finI) ? 1 : -1;
-				int jumpJ = (initJ < finJ) ? 1 : -1;
-
-				for (int i = initI + jumpI; i != finI; i += jumpI) {
-					for (int j = initJ + jumpJ; j != finJ; j += jumpJ)
-						if (chessboard[i][j] != Chessmen.EMPTY && Math.abs(initI - i) == Math.abs(initJ - j)) {
-							System.err.println("Something is in the way of your queen. Try again.");
-							return false;
-						}
-				}
-			} else if (initI == finI) {
-				// Rows are same, so horizontal move
-				int jump = (initJ < finJ) ? 1 : -1;
-
-				for (int j = initJ + jump; j != finJ; j += jump) {
-					if (chessboard[initI][j] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your queen. Try again.");
-						return false;
-					}
-				}
-			} else if (initJ == finJ) {
-				// Cols are same, so vertical move
-				int jump = (initI < finI) ? 1 : -1;
-
-				for (int i = initI + jump; i != finI; i += jump) {
-					if (chessboard[i][initJ] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your queen. Try again.");
-						return false;
-					}
-				}
-			} else {
-				System.err.println("Not a valid move for a queen. Try again.");
-				return false;
-			}
-
-			return true;
-
-		case WHITE_KING:
-			System.out.println("White king selected.");
-
-			if (Math.abs(initI - finI) == 1 && Math.abs(initJ - finJ) == 1
-					&& chessboard[finI][finJ] != Chessmen.WHITE_PAWN && chessboard[finI][finJ] != Chessmen.WHITE_KING
-					&& chessboard[finI][finJ] != Chessmen.WHITE_QUEEN && chessboard[finI][finJ] != Chessmen.WHITE_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.WHITE_ROOK) {
-				// Diagonal move in any direction.
-				return true;
-			} else if (Math.abs(initI - finI) == 1 && initJ == finJ && chessboard[finI][finJ] != Chessmen.WHITE_PAWN
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KING && chessboard[finI][finJ] != Chessmen.WHITE_QUEEN
-					&& chessboard[finI][finJ] != Chessmen.WHITE_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.WHITE_ROOK) {
-				// up or down move.
-				return true;
-			} else if (Math.abs(initJ - finJ) == 1 && initI == finI && chessboard[finI][finJ] != Chessmen.WHITE_PAWN
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KING && chessboard[finI][finJ] != Chessmen.WHITE_QUEEN
-					&& chessboard[finI][finJ] != Chessmen.WHITE_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.WHITE_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.WHITE_ROOK) {
-				// left or right move.
-				return true;
-			} else {
-				System.err.println("Not a valid move for a king. Try again.");
-				return false;
-			}
-
-		default:
-			System.err.println("Non-white piece selected during Player 1's turn. Try again.");
-			return false;
-		}
+		return Chessboard.ruleCheckPlayer(chessboard, move, true);
 	}
 
 	/**
@@ -570,28 +397,77 @@ public class Chessboard {
 	 *         rules.
 	 */
 	public static boolean ruleCheckPlayer2(Chessmen[][] chessboard, String move) {
+		return Chessboard.ruleCheckPlayer(chessboard, move, false);
+	}
+
+	/*
+	 * Parses the move and hands it to the overload below.
+	 */
+	private static boolean ruleCheckPlayer(Chessmen[][] chessboard, String move, boolean white) {
+
 		/*
 		 * In the same way that the method "move" works, we will begin by using the
 		 * position method to get initial and final coordinates of the String move.
 		 */
 
 		int[] posVector = Chessboard.position(chessboard, move);
-		int initI = posVector[0];
-		int initJ = posVector[1];
-		int finI = posVector[2];
-		int finJ = posVector[3];
+		return Chessboard.ruleCheckPlayer(chessboard, posVector[0], posVector[1], posVector[2], posVector[3], white);
+	}
+
+	/*
+	 * Checks an already parsed move with ruleCheck and tells the player which piece
+	 * they selected and, if the move is not allowed, why.
+	 */
+	private static boolean ruleCheckPlayer(Chessmen[][] chessboard, int initI, int initJ, int finI, int finJ,
+			boolean white) {
+		long start = ChessMetrics.start();
+
+		RuleCheck result = Chessboard.ruleCheck(chessboard, initI, initJ, finI, finJ, white);
+
+		if (result != RuleCheck.INVALID_COORDINATES && result != RuleCheck.NOT_OWN_PIECE) {
+			System.out.println(Chessboard.describe(chessboard[initI][initJ]) + " selected.");
+		}
+		if (result != RuleCheck.LEGAL) {
+			System.err.println(result.message(white));
+		}
+
+		ChessMetrics.stop(ChessMetrics.Timer.RULE_CHECK, start);
+		return result == RuleCheck.LEGAL;
+	}
+
+	/**
+	 * Checks a move against basic rules of chess without printing anything. This
+	 * is what ruleCheckPlayer1 and ruleCheckPlayer2 use once they have parsed the
+	 * player's input, and can be called directly by code that already has the
+	 * coordinates.
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param initI
+	 *            The row of the piece to move.
+	 * @param initJ
+	 *            The column of the piece to move.
+	 * @param finI
+	 *            The row to move it to.
+	 * @param finJ
+	 *            The column to move it to.
+	 * @param white
+	 *            true for a move by White (Player 1), false for Black (Player 2).
+	 * @return LEGAL if the move follows the rules, otherwise the rule it breaks.
+	 */
+	public static RuleCheck ruleCheck(Chessmen[][] chessboard, int initI, int initJ, int finI, int finJ,
+			boolean white) {
 
 		// Check coordinates are within bounds:
 		if (initI > 7 || initI < 0 || initJ > 7 || initJ < 0 || finI > 7 || finI < 0 || finJ > 7 || finJ < 0) {
-			System.err.println("Input coordinates are invalid.  Please type them again, in the form 'a6 to c4'.");
-			return false;
+			return RuleCheck.INVALID_COORDINATES;
 		}
 
 		/*
-		 * RULES PLAYER 2!! Moves must now be tested for each piece. In short, the rules
-		 * that will be used are: Pawn: 1. On first go can move forward one or two
-		 * places. 2. On subsequent goes can only move forward one place. 3. Cannot move
-		 * forward if the place ahead of it is blocked. 4. Can only take diagonally.
+		 * RULES!! Moves must now be tested for each piece. In short, the rules that
+		 * will be used are: Pawn: 1. On first go can move forward one or two places. 2.
+		 * On subsequent goes can only move forward one place. 3. Cannot move forward if
+		 * the place ahead of it is blocked. 4. Can only take diagonally.
 		 * 
 		 * Rook: 1. Can move horizontally or vertically by any distance, unless
 		 * something is in the way.
@@ -605,230 +481,165 @@ public class Chessboard {
 		 * something is in the way.
 		 * 
 		 * King: 1. Can move one place in any direction, unless something is in the way.
+		 * 
+		 * White moves up the board (increasing row) and Black moves down it.
 		 */
 
-		switch (chessboard[initI][initJ]) {
+		Chessmen piece = chessboard[initI][initJ];
+		if (!Chessboard.isOwn(piece, white)) {
+			return RuleCheck.NOT_OWN_PIECE;
+		}
+
+		switch (piece) {
+		case WHITE_PAWN:
 		case BLACK_PAWN:
-			System.out.println("Black pawn selected.");
-			if (initI - finI == 1 && initJ == finJ && chessboard[finI][finJ] == Chessmen.EMPTY) {
-				return true; // ordinary move
-			} else if (initI - finI == 1 && Math.abs(initJ - finJ) == 1 && chessboard[finI][finJ] != Chessmen.EMPTY
-					&& chessboard[finI][finJ] != Chessmen.BLACK_PAWN && chessboard[finI][finJ] != Chessmen.BLACK_KING
-					&& chessboard[finI][finJ] != Chessmen.BLACK_QUEEN && chessboard[finI][finJ] != Chessmen.BLACK_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.BLACK_ROOK) {
-				return true; // taking move
-			} else if (initI == 6 && (initI - finI == 1 || initI - finI == 2) && initJ == finJ
-					&& chessboard[initI - 1][initJ] == Chessmen.EMPTY
-					&& chessboard[initI - 2][initJ] == Chessmen.EMPTY) {
-				return true; // starting move
+			int forward = white ? 1 : -1; // direction of travel
+			int startRow = white ? 1 : 6;
+			int advance = (finI - initI) * forward;
+
+			if (advance == 1 && initJ == finJ && chessboard[finI][finJ] == Chessmen.EMPTY) {
+				return RuleCheck.LEGAL; // Ordinary move
+			} else if (advance == 1 && Math.abs(initJ - finJ) == 1 && chessboard[finI][finJ] != Chessmen.EMPTY
+					&& !Chessboard.isOwn(chessboard[finI][finJ], white)) {
+				return RuleCheck.LEGAL; // Taking move
+			} else if (initI == startRow && (advance == 1 || advance == 2) && initJ == finJ
+					&& chessboard[initI + forward][initJ] == Chessmen.EMPTY
+					&& chessboard[initI + 2 * forward][initJ] == Chessmen.EMPTY) {
+				return RuleCheck.LEGAL; // Starting move
 			} else {
-				System.err.println("Not a valid pawn move. Try again.");
-				return false;
+				return RuleCheck.PAWN_MOVE;
 			}
 
-		case BLACK_ROOK:
-			System.out.println("Black rook selected.");
+		case WHITE_KNIGHT:
+		case BLACK_KNIGHT:
+			if ((Math.abs(initI - finI) == 2) && (Math.abs(initJ - finJ) == 1)) {
+				return RuleCheck.LEGAL;
+			} else if ((Math.abs(initI - finI) == 1) && (Math.abs(initJ - finJ) == 2)) {
+				return RuleCheck.LEGAL;
+			} else {
+				return RuleCheck.KNIGHT_MOVE;
+			}
 
+		case WHITE_ROOK:
+		case BLACK_ROOK:
 			// Attempt to move to the same cell:
 			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
+				return RuleCheck.SAME_CELL;
 			}
 
 			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.BLACK_PAWN || chessboard[finI][finJ] == Chessmen.BLACK_ROOK
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.BLACK_BISHOP || chessboard[finI][finJ] == Chessmen.BLACK_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KING) {
-				System.err.println("Destination cell is already occupied by a black piece. Try again.");
-				return false;
+			if (Chessboard.isOwn(chessboard[finI][finJ], white)) {
+				return RuleCheck.OCCUPIED_BY_OWN_PIECE;
 			}
 
 			// Check if path between is free:
-			if (initI == finI) {
-				// Rows are same, so horizontal move
-				int jump = (initJ < finJ) ? 1 : -1;
-
-				for (int j = initJ + jump; j != finJ; j += jump) {
-					if (chessboard[initI][j] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your rook. Try again.");
-						return false;
-					}
-				}
-			} else if (initJ == finJ) {
-				// Cols are same, so vertical move
-				int jump = (initI < finI) ? 1 : -1;
-
-				for (int i = initI + jump; i != finI; i += jump) {
-					if (chessboard[i][initJ] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your rook. Try again.");
-						return false;
-					}
-				}
-			} else {
-				// Not a valid move
-				System.err.println("Not a valid move for a rook. Try again.");
-				return false;
-			}
-
-			return true;
-
-		case BLACK_KNIGHT:
-			System.out.println("Black knight selected.");
-
-			if ((Math.abs(initI - finI) == 2) && (Math.abs(initJ - finJ) == 1)) {
-				return true;
-			} else if ((Math.abs(initI - finI) == 1) && (Math.abs(initJ - finJ) == 2)) {
-				return true;
-			} else {
-				System.err.println("Not a valid knight move. Try again.");
-				return false;
+			if (initI == finI || initJ == finJ) {
+				return Chessboard.lineIsClear(chessboard, initI, initJ, finI, finJ) ? RuleCheck.LEGAL
+						: RuleCheck.ROOK_BLOCKED;
 			}
+			return RuleCheck.ROOK_MOVE; // Not a valid move
 
+		case WHITE_BISHOP:
 		case BLACK_BISHOP:
-			System.out.println("Black bishop selected.");
-
 			// Attempt to move to the same cell:
 			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
+				return RuleCheck.SAME_CELL;
 			}
 
 			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.BLACK_PAWN || chessboard[finI][finJ] == Chessmen.BLACK_ROOK
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.BLACK_BISHOP || chessboard[finI][finJ] == Chessmen.BLACK_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KING) {
-				System.err.println("Destination cell is already occupied by a black piece. Try again.");
-				return false;
+			if (Chessboard.isOwn(chessboard[finI][finJ], white)) {
+				return RuleCheck.OCCUPIED_BY_OWN_PIECE;
 			}
 
 			// Check that the difference between rows and columns is the same (i.e. bishop
 			// is moving diagonally)
 			// Will then check that there is no collision on the path between.
 			if (Math.abs(initI - finI) == Math.abs(initJ - finJ)) {
-
-				int jumpI = (initI < finI) ? 1 : -1;
-				int jumpJ = (initJ < finJ) ? 1 : -1;
-
-				for (int i = initI + jumpI; i != finI; i += jumpI) {
-					for (int j = initJ + jumpJ; j != finJ; j += jumpJ)
-						if (chessboard[i][j] != Chessmen.EMPTY && Math.abs(initI - i) == Math.abs(initJ - j)) {
-							System.err.println("Something is in the way of your bishop. Try again.");
-							return false;
-						}
-				}
-			} else {
-				System.err.println("Not a valid bishop move. Try again.");
-				return false;
+				return Chessboard.lineIsClear(chessboard, initI, initJ, finI, finJ) ? RuleCheck.LEGAL
+						: RuleCheck.BISHOP_BLOCKED;
 			}
+			return RuleCheck.BISHOP_MOVE;
 
-			return true;
-
+		case WHITE_QUEEN:
 		case BLACK_QUEEN:
-			System.out.println("Black queen selected.");
-
 			// Attempt to move to the same cell:
 			if (initI == finI && initJ == finJ) {
-				System.err.println("Attempt to move to the same cell not allowed. Try again.");
-				return false;
+				return RuleCheck.SAME_CELL;
 			}
 
 			// Check if destination is free:
-			if (chessboard[finI][finJ] == Chessmen.BLACK_PAWN || chessboard[finI][finJ] == Chessmen.BLACK_ROOK
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KNIGHT
-					|| chessboard[finI][finJ] == Chessmen.BLACK_BISHOP || chessboard[finI][finJ] == Chessmen.BLACK_QUEEN
-					|| chessboard[finI][finJ] == Chessmen.BLACK_KING) {
-				System.err.println("Destination cell is already occupied by a black piece. Try again.");
-				return false;
+			if (Chessboard.isOwn(chessboard[finI][finJ], white)) {
+				return RuleCheck.OCCUPIED_BY_OWN_PIECE;
 			}
 
-			// Will check that there is no collision on the path between.
-			if (Math.abs(initI - finI) == Math.abs(initJ - finJ)) {
-				// Diagonal move
-				int jumpI = (initI < finI) ? 1 : -1;
-				int jumpJ = (initJ < finJ) ? 1 : -1;
-
-				for (int i = initI + jumpI; i != finI; i += jumpI) {
-					for (int j = initJ + jumpJ; j != finJ; j += jumpJ)
-						if (chessboard[i][j] != Chessmen.EMPTY && Math.abs(initI - i) == Math.abs(initJ - j)) {
-							System.err.println("Something is in the way of your queen. Try again.");
-							return false;
-						}
-				}
-			} else if (initI == finI) {
-				// Rows are same, so horizontal move
-				int jump = (initJ < finJ) ? 1 : -1;
-
-				for (int j = initJ + jump; j != finJ; j += jump) {
-					if (chessboard[initI][j] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your queen. Try again.");
-						return false;
-					}
-				}
-			} else if (initJ == finJ) {
-				// Cols are same, so vertical move
-				int jump = (initI < finI) ? 1 : -1;
-
-				for (int i = initI + jump; i != finI; i += jump) {
-					if (chessboard[i][initJ] != Chessmen.EMPTY) {
-						System.err.println("Something is in the way of your queen. Try again.");
-						return false;
-					}
-				}
-			} else {
-				System.err.println("Not a valid move for a queen. Try again.");
-				return false;
+			// Will check that there is no collision on the path between, whether the move
+			// is diagonal, horizontal or vertical.
+			if (Math.abs(initI - finI) == Math.abs(initJ - finJ) || initI == finI || initJ == finJ) {
+				return Chessboard.lineIsClear(chessboard, initI, initJ, finI, finJ) ? RuleCheck.LEGAL
+						: RuleCheck.QUEEN_BLOCKED;
 			}
+			return RuleCheck.QUEEN_MOVE;
 
-			return true;
-
+		case WHITE_KING:
 		case BLACK_KING:
-			System.out.println("Black king selected.");
-
-			if (Math.abs(initI - finI) == 1 && Math.abs(initJ - finJ) == 1
-					&& chessboard[finI][finJ] != Chessmen.BLACK_PAWN && chessboard[finI][finJ] != Chessmen.BLACK_KING
-					&& chessboard[finI][finJ] != Chessmen.BLACK_QUEEN && chessboard[finI][finJ] != Chessmen.BLACK_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.BLACK_ROOK) {
-				// Diagonal move in any direction.
-				return true;
-			} else if (Math.abs(initI - finI) == 1 && initJ == finJ && chessboard[finI][finJ] != Chessmen.BLACK_PAWN
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KING && chessboard[finI][finJ] != Chessmen.BLACK_QUEEN
-					&& chessboard[finI][finJ] != Chessmen.BLACK_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.BLACK_ROOK) {
-				// up or down move.
-				return true;
-			} else if (Math.abs(initJ - finJ) == 1 && initI == finI && chessboard[finI][finJ] != Chessmen.BLACK_PAWN
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KING && chessboard[finI][finJ] != Chessmen.BLACK_QUEEN
-					&& chessboard[finI][finJ] != Chessmen.BLACK_BISHOP
-					&& chessboard[finI][finJ] != Chessmen.BLACK_KNIGHT
-					&& chessboard[finI][finJ] != Chessmen.BLACK_ROOK) {
-				// left or right move.
-				return true;
-			} else {
-				System.err.println("Not a valid move for a king. Try again.");
-				return false;
+			// One place in any direction (diagonal, up or down, left or right).
+			if (Math.max(Math.abs(initI - finI), Math.abs(initJ - finJ)) == 1
+					&& !Chessboard.isOwn(chessboard[finI][finJ], white)) {
+				return RuleCheck.LEGAL;
 			}
+			return RuleCheck.KING_MOVE;
 
 		default:
-			System.err.println("Non-black piece selected during Player 2's turn. Try again.");
-			return false;
+			return RuleCheck.NOT_OWN_PIECE;
+		}
+	}
+
+	/*
+	 * Checks that every cell strictly between the initial and final cells of a
+	 * straight (horizontal, vertical or diagonal) move is empty.
+	 */
+	private static boolean lineIsClear(Chessmen[][] chessboard, int initI, int initJ, int finI, int finJ) {
+		int jumpI = Integer.signum(finI - initI);
+		int jumpJ = Integer.signum(finJ - initJ);
+
+		for (int i = initI + jumpI, j = initJ + jumpJ; i != finI || j != finJ; i += jumpI, j += jumpJ) {
+			if (chessboard[i][j] != Chessmen.EMPTY) {
+				return false;
+			}
 		}
+		return true;
 	}
 
 	/**
-	 * program generates a chessboard and prints its initial state to the console.
-	 * The game is designed for two players, who must enter moves of the form "a6 to
-	 * b3" (case does not matter). Players must type "exit" in order to exit the
-	 * program.
-	 * 
-	 * @param args ...
+	 * @return true if piece belongs to White (when white is true) or Black (when
+	 *         white is false). EMPTY belongs to neither.
+	 */
+	static boolean isOwn(Chessmen piece, boolean white) {
+		return piece != Chessmen.EMPTY && Chessboard.isWhite(piece) == white;
+	}
+
+	/**
+	 * @return true if piece is one of White's. Not meaningful for EMPTY.
+	 */
+	static boolean isWhite(Chessmen piece) {
+		return piece.ordinal() < Chessmen.BLACK_KING.ordinal();
+	}
+
+	/*
+	 * Turns e.g. WHITE_PAWN into "White pawn".
+	 */
+	private static String describe(Chessmen piece) {
+		String name = piece.name().toLowerCase().replace('_', ' ');
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	/**
+	 * Creates a chessboard with all the pieces in their starting positions.
 	 * 
+	 * @return An 8x8 array of chessmen, with White on rows 0 and 1 and Black on
+	 *         rows 6 and 7.
 	 */
-	public static void main(String[] args) {
+	public static Chessmen[][] newBoard() {
 
 		Chessmen[][] chessboard = new Chessmen[8][8];
 
@@ -872,27 +683,95 @@ public class Chessboard {
 			}
 		}
 
+		return chessboard;
+	}
+
+	/**
+	 * program generates a chessboard and prints its initial state to the console.
+	 * The game is designed for two players, who must enter moves of the form "a6 to
+	 * b3" (case does not matter). Typing "moves" and a square, e.g. "moves e2",
+	 * lists where the piece on that square can go. Players must type "exit" in
+	 * order to exit the program.
+	 * 
+	 * @param args "--journal dir" keeps the game in a journal in dir;
+	 *             "--computer [thinkMillis]" lets the computer play Black.
+	 * 
+	 */
+	public static void main(String[] args) throws InterruptedException {
+
+		GameStore store = null;
+		ComputerPlayer computer = null;
+		String journal = null;
+		Chessmen[][] chessboard;
+		boolean whiteToMove = true;
+
+		for (int k = 0; k < args.length; k++) {
+			if (args[k].equals("--journal") && k + 1 < args.length) {
+				journal = args[++k];
+			} else if (args[k].equals("--computer")) {
+				long thinkMillis = 1000;
+				if (k + 1 < args.length && args[k + 1].matches("\\d+")) {
+					thinkMillis = Long.parseLong(args[++k]);
+				}
+				computer = new ComputerPlayer(false, Analysis.MAX_PLY - 1, thinkMillis);
+			} else {
+				System.err.println("Usage: java Chessboard [--journal dir] [--computer [thinkMillis]]");
+				return;
+			}
+		}
+
+		if (journal != null) {
+			// Keep the game in a journal so it can be picked up again after a crash.
+			try {
+				store = GameStore.open(Paths.get(journal), 1, 0, 256);
+				if (!store.contains(0)) {
+					store.newGame(0);
+				}
+				chessboard = store.board(0).toArray();
+				whiteToMove = store.whiteToMove(0);
+				System.out.printf("Recovered game after %d moves in %.1f ms.%n", store.ply(0),
+						store.recoveryNanos() / 1e6);
+			} catch (IOException e) {
+				System.err.println("Could not open the journal in " + journal + ": " + e.getMessage());
+				return;
+			}
+		} else {
+			chessboard = Chessboard.newBoard();
+		}
+
 		Chessboard.printBoard(chessboard);
 
+		// Computed once per position, on the first move typed after it changes.
+		LegalMoves legalMoves = new LegalMoves();
+
+		// One reader for the whole game: a new one each round would lose any input the
+		// last one had already buffered. A plain reader rather than a Scanner, which
+		// would load regular expressions and locale data before the first move.
+		BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+
 		/**
 		 * Take user's input to allow basic moves, e.g. e1 to e5. While loop will
 		 * continue until "exit" is typed.
 		 */
 		while (true) {
 
-			Scanner console = new Scanner(System.in);
-
 			// Player 1's turn. Code will repeat in a while loop until Player 1 submits a
-			// valid move or terminates the program.
-			while (true) {
+			// valid move or terminates the program. Skipped if a recovered game resumes
+			// on Player 2's turn.
+			while (whiteToMove) {
 				System.out.println("Player 1 (White) move:");
-				String inputPlayer1 = console.nextLine();
+				String inputPlayer1 = Chessboard.readLine(console);
 
 				if (inputPlayer1.equalsIgnoreCase("exit")) {
 					System.out.println("Program exited by Player 1.");
+					Chessboard.close(store);
 					System.exit(0);
-				} else if (Chessboard.ruleCheckPlayer1(chessboard, inputPlayer1)) {
+				} else if (inputPlayer1.trim().toLowerCase().startsWith("moves ")) {
+					Chessboard.showMoves(chessboard, legalMoves, inputPlayer1, true);
+				} else if (Chessboard.accept(chessboard, legalMoves, inputPlayer1, true)) {
 					Chessboard.move(chessboard, inputPlayer1);
+					legalMoves.invalidate();
+					Chessboard.record(store, chessboard, inputPlayer1);
 					Chessboard.printBoard(chessboard);
 					break;
 				} else {
@@ -904,19 +783,157 @@ public class Chessboard {
 			// valid move or terminates the program.
 			while (true) {
 				System.out.println("Player 2 (Black) move:");
-				String inputPlayer2 = console.nextLine();
+				String inputPlayer2;
+				if (computer != null) {
+					inputPlayer2 = computer.reply(chessboard);
+					if (inputPlayer2 == null) {
+						System.out.println("Player 2 (Black) has no legal moves.");
+						Chessboard.close(store);
+						System.exit(0);
+					}
+					System.out.printf("%s (%.0f ms)%n", inputPlayer2, computer.lastReplyNanos() / 1e6);
+				} else {
+					inputPlayer2 = Chessboard.readLine(console);
+				}
 
 				if (inputPlayer2.equalsIgnoreCase("exit")) {
 					System.out.println("Program exited by Player 2.");
+					Chessboard.close(store);
 					System.exit(0);
-				} else if (Chessboard.ruleCheckPlayer2(chessboard, inputPlayer2)) {
+				} else if (inputPlayer2.trim().toLowerCase().startsWith("moves ")) {
+					Chessboard.showMoves(chessboard, legalMoves, inputPlayer2, false);
+				} else if (Chessboard.accept(chessboard, legalMoves, inputPlayer2, false)) {
 					Chessboard.move(chessboard, inputPlayer2);
+					legalMoves.invalidate();
+					Chessboard.record(store, chessboard, inputPlayer2);
 					Chessboard.printBoard(chessboard);
+					if (computer != null) {
+						// Search the expected reply while Player 1 thinks.
+						computer.ponder(chessboard);
+					}
 					break;
 				} else {
 					System.err.println("");
 				}
 			}
+
+			whiteToMove = true;
+		}
+	}
+
+	/*
+	 * Reads a line typed at the console. The end of the input counts as "exit".
+	 */
+	private static String readLine(BufferedReader console) {
+		long start = ChessMetrics.start();
+		try {
+			String line = console.readLine();
+			return line == null ? "exit" : line;
+		} catch (IOException e) {
+			System.err.println("Could not read from the console: " + e.getMessage());
+			return "exit";
+		} finally {
+			ChessMetrics.stop(ChessMetrics.Timer.CONSOLE_READ, start);
+		}
+	}
+
+	/*
+	 * Checks a player's move against the legal moves of the position, which are
+	 * only worked out once per position. The move is parsed once; if it is not
+	 * allowed, the parsed coordinates go to ruleCheckPlayer to explain why.
+	 */
+	private static boolean accept(Chessmen[][] chessboard, LegalMoves legalMoves, String move, boolean white) {
+		int[] posVector = Chessboard.position(chessboard, move);
+		int initI = posVector[0];
+		int initJ = posVector[1];
+		int finI = posVector[2];
+		int finJ = posVector[3];
+
+		long start = ChessMetrics.start();
+		boolean legal = legalMoves.update(chessboard, white).isLegal(initI, initJ, finI, finJ);
+		ChessMetrics.stop(ChessMetrics.Timer.LEGAL_MOVES, start);
+		if (legal) {
+			System.out.println(Chessboard.describe(chessboard[initI][initJ]) + " selected.");
+			return true;
+		}
+		return Chessboard.ruleCheckPlayer(chessboard, initI, initJ, finI, finJ, white);
+	}
+
+	/*
+	 * Answers e.g. "moves e2" by listing the squares the piece on e2 can move to.
+	 */
+	private static void showMoves(Chessmen[][] chessboard, LegalMoves legalMoves, String input, boolean white) {
+		String square = input.trim().substring("moves".length()).trim();
+		int from = Chessboard.square(square);
+		if (from < 0) {
+			System.err.println("Not a square: '" + square + "'. Try e.g. 'moves e2'.");
+			return;
+		}
+
+		long start = ChessMetrics.start();
+		long mask = legalMoves.update(chessboard, white).destinations(from >> 3, from & 7);
+		ChessMetrics.stop(ChessMetrics.Timer.LEGAL_MOVES, start);
+		if (mask == 0) {
+			System.out.println("No legal moves from " + square.toLowerCase() + ".");
+			return;
+		}
+		StringBuilder list = new StringBuilder("Legal moves from " + square.toLowerCase() + ":");
+		for (int to = 0; to < 64; to++) {
+			if ((mask & (1L << to)) != 0) {
+				list.append(' ').append(Chessboard.square(to >> 3, to & 7));
+			}
+		}
+		System.out.println(list);
+	}
+
+	/**
+	 * @return The name of the square on row i, column j in standard notation,
+	 *         e.g. "e4".
+	 */
+	static String square(int i, int j) {
+		return "" + (char) ('a' + j) + (i + 1);
+	}
+
+	/**
+	 * @return The index i * 8 + j of a square named in standard notation, e.g.
+	 *         "e4", in either case, or -1 if name is not a square.
+	 */
+	static int square(String name) {
+		if (name.length() != 2) {
+			return -1;
+		}
+		int j = Character.toLowerCase(name.charAt(0)) - 'a';
+		int i = name.charAt(1) - '1';
+		if (i < 0 || i > 7 || j < 0 || j > 7) {
+			return -1;
+		}
+		return i * 8 + j;
+	}
+
+	/*
+	 * Journals a move that has just been played, if the game is being kept in a
+	 * GameStore.
+	 */
+	private static void record(GameStore store, Chessmen[][] chessboard, String move) {
+		if (store == null) {
+			return;
+		}
+		int[] posVector = Chessboard.position(chessboard, move);
+		try {
+			store.apply(0, posVector[0], posVector[1], posVector[2], posVector[3]);
+		} catch (IOException e) {
+			System.err.println("Could not journal the move: " + e.getMessage());
+		}
+	}
+
+	private static void close(GameStore store) {
+		if (store == null) {
+			return;
+		}
+		try {
+			store.close();
+		} catch (IOException e) {
+			System.err.println("Could not close the journal: " + e.getMessage());
 		}
 	}
 }
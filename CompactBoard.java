@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * The CompactBoard class stores a chessboard as a single byte array of 64
+ * squares, each holding the ordinal of its Chessmen value. A Chessmen[][] is
+ * nine array objects holding 64 references, while a CompactBoard is one object
+ * and one 64-byte array, so it is much cheaper to copy, compare, hash and keep
+ * many of.
+ * 
+ * Squares are numbered i * 8 + j, where i and j are the row and column indices
+ * used by Chessboard. A board can also be packed into four longs, one nibble
+ * per square, for storage.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public final class CompactBoard {
+
+	/** The number of longs used by pack and unpack. */
+	public static final int PACKED_LONGS = 4;
+
+	/** The Chessmen values by ordinal, i.e. by the byte stored for a square. */
+	static final Chessboard.Chessmen[] PIECES = Chessboard.Chessmen.values();
+
+	/** The byte stored for an empty square. */
+	static final byte EMPTY = (byte) Chessboard.Chessmen.EMPTY.ordinal();
+
+	private final byte[] squares = new byte[64];
+
+	/**
+	 * Creates an empty board.
+	 */
+	public CompactBoard() {
+		Arrays.fill(squares, EMPTY);
+	}
+
+	/**
+	 * Creates a compact copy of the given board.
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 */
+	public CompactBoard(Chessboard.Chessmen[][] chessboard) {
+		load(chessboard);
+	}
+
+	/**
+	 * Overwrites this board with the contents of chessboard.
+	 */
+	public void load(Chessboard.Chessmen[][] chessboard) {
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				squares[i * 8 + j] = (byte) chessboard[i][j].ordinal();
+			}
+		}
+	}
+
+	/**
+	 * Overwrites chessboard with the contents of this board.
+	 */
+	public void copyTo(Chessboard.Chessmen[][] chessboard) {
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				chessboard[i][j] = PIECES[squares[i * 8 + j]];
+			}
+		}
+	}
+
+	/**
+	 * @return A new 8x8 array of chessmen with the contents of this board.
+	 */
+	public Chessboard.Chessmen[][] toArray() {
+		Chessboard.Chessmen[][] chessboard = new Chessboard.Chessmen[8][8];
+		copyTo(chessboard);
+		return chessboard;
+	}
+
+	/**
+	 * Overwrites target with the contents of this board without allocating.
+	 */
+	public void copyInto(CompactBoard target) {
+		System.arraycopy(squares, 0, target.squares, 0, 64);
+	}
+
+	public CompactBoard copy() {
+		CompactBoard copy = new CompactBoard();
+		copyInto(copy);
+		return copy;
+	}
+
+	public Chessboard.Chessmen get(int i, int j) {
+		return PIECES[squares[i * 8 + j]];
+	}
+
+	public void set(int i, int j, Chessboard.Chessmen piece) {
+		squares[i * 8 + j] = (byte) piece.ordinal();
+	}
+
+	/**
+	 * Moves whatever is on the initial square to the final square and clears the
+	 * initial square, in the same way as Chessboard.move.
+	 * 
+	 * @return The piece that was on the final square, or EMPTY.
+	 */
+	public Chessboard.Chessmen move(int initI, int initJ, int finI, int finJ) {
+		byte captured = squares[finI * 8 + finJ];
+		squares[finI * 8 + finJ] = squares[initI * 8 + initJ];
+		squares[initI * 8 + initJ] = EMPTY;
+		return PIECES[captured];
+	}
+
+	/**
+	 * Packs the board into PACKED_LONGS longs, one nibble per square, starting
+	 * at dst[offset].
+	 */
+	public void pack(long[] dst, int offset) {
+		for (int word = 0; word < PACKED_LONGS; word++) {
+			long bits = 0L;
+			for (int k = 15; k >= 0; k--) {
+				bits = (bits << 4) | squares[word * 16 + k];
+			}
+			dst[offset + word] = bits;
+		}
+	}
+
+	/**
+	 * Overwrites this board with PACKED_LONGS longs written by pack, starting at
+	 * src[offset].
+	 */
+	public void unpack(long[] src, int offset) {
+		for (int word = 0; word < PACKED_LONGS; word++) {
+			long bits = src[offset + word];
+			for (int k = 0; k < 16; k++) {
+				squares[word * 16 + k] = (byte) (bits & 0xF);
+				bits >>>= 4;
+			}
+		}
+	}
+
+	/**
+	 * @return The Zobrist hash of this board with the given side to move. Equal
+	 *         to Zobrist.hash of the same position.
+	 */
+	public long zobrist(boolean whiteToMove) {
+		long hash = whiteToMove ? 0L : Zobrist.BLACK_TO_MOVE;
+		for (int square = 0; square < 64; square++) {
+			if (squares[square] != EMPTY) {
+				hash ^= Zobrist.key(PIECES[squares[square]], square >> 3, square & 7);
+			}
+		}
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof CompactBoard && Arrays.equals(squares, ((CompactBoard) other).squares);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(squares);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 7; i >= 0; i--) {
+			for (int j = 0; j < 8; j++) {
+				text.append(Integer.toHexString(squares[i * 8 + j]));
+			}
+			text.append(i > 0 ? '/' : ']');
+		}
+		return "CompactBoard[" + text;
+	}
+}
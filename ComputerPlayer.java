@@ -0,0 +1,202 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The ComputerPlayer class plays one side of the console game with Analysis.
+ * Each reply is searched for a fixed thinking time, or until the search
+ * reaches its maximum depth.
+ *
+ * The player ponders: after making its move it predicts the opponent's reply
+ * from its own best line and, while the opponent thinks, searches the position
+ * that reply leads to on a background thread. If the opponent plays the
+ * predicted move, the search already under way is used and the time already
+ * spent counts towards the thinking time, so the reply comes sooner. Otherwise
+ * that search is cancelled and a new one started. All searches share one
+ * TranspositionTable, so positions searched while pondering are remembered
+ * even when the prediction is wrong.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class ComputerPlayer {
+
+	private final boolean white;
+	private final int maxDepth;
+	private final long thinkNanos;
+	private final TranspositionTable table = new TranspositionTable();
+
+	// The move the opponent is expected to play next, or -1.
+	private int expectedReply = -1;
+
+	// The search of the position after the expected reply, if pondering.
+	private Analysis pondering;
+	private CompletableFuture<Analysis.Update> ponderResult;
+	private long ponderHash;
+	private long ponderStart;
+
+	private int ponderHits;
+	private int ponderMisses;
+	private long lastReplyNanos;
+
+	/**
+	 * @param white
+	 *            true to play White (Player 1), false to play Black (Player 2).
+	 * @param maxDepth
+	 *            The depth, in plies, at which a search stops by itself.
+	 * @param thinkMillis
+	 *            How long to search for each move.
+	 */
+	public ComputerPlayer(boolean white, int maxDepth, long thinkMillis) {
+		this.white = white;
+		this.maxDepth = maxDepth;
+		this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+	}
+
+	/**
+	 * Chooses the computer's move. Uses the ponder search if the position is the
+	 * one it predicted, and stops pondering in any case.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The position, with the computer to move.
+	 * @return The move as players type it, e.g. "e7 to e5", or null if there are
+	 *         no legal moves.
+	 */
+	public String reply(Chessboard.Chessmen[][] chessboard) throws InterruptedException {
+		long start = System.nanoTime();
+		Analysis analysis;
+		CompletableFuture<Analysis.Update> result;
+		long deadline;
+
+		if (pondering != null && ponderHash == Zobrist.hash(chessboard, white)) {
+			ponderHits++;
+			analysis = pondering;
+			result = ponderResult;
+			deadline = ponderStart + thinkNanos;
+		} else {
+			if (pondering != null) {
+				ponderMisses++;
+				stopPondering();
+			}
+			analysis = new Analysis(chessboard, white, 1, maxDepth, table);
+			result = analysis.start();
+			deadline = start + thinkNanos;
+		}
+		pondering = null;
+		ponderResult = null;
+
+		Analysis.Line best = finish(analysis, result, deadline).best();
+		lastReplyNanos = System.nanoTime() - start;
+		if (best == null) {
+			expectedReply = -1;
+			return null;
+		}
+		expectedReply = best.pv.length > 1 ? best.pv[1] : -1;
+		return Analysis.moveText(best.firstMove());
+	}
+
+	/**
+	 * Starts searching, in the background, the position after the opponent's
+	 * expected reply. Does nothing if no reply could be predicted.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The position after the computer's move,
+	 *            with the opponent to move. It is copied.
+	 */
+	public void ponder(Chessboard.Chessmen[][] chessboard) throws InterruptedException {
+		stopPondering();
+		if (expectedReply < 0) {
+			return;
+		}
+		int from = expectedReply >> 6, to = expectedReply & 63;
+		if (Chessboard.ruleCheck(chessboard, from >> 3, from & 7, to >> 3, to & 7,
+				!white) != Chessboard.RuleCheck.LEGAL) {
+			return;
+		}
+
+		Chessboard.Chessmen[][] predicted = new Chessboard.Chessmen[8][8];
+		for (int i = 0; i < 8; i++) {
+			System.arraycopy(chessboard[i], 0, predicted[i], 0, 8);
+		}
+		predicted[to >> 3][to & 7] = predicted[from >> 3][from & 7];
+		predicted[from >> 3][from & 7] = Chessboard.Chessmen.EMPTY;
+
+		pondering = new Analysis(predicted, white, 1, maxDepth, table);
+		ponderHash = Zobrist.hash(predicted, white);
+		ponderStart = System.nanoTime();
+		ponderResult = pondering.start();
+	}
+
+	/**
+	 * Cancels the ponder search, if any, and waits for its thread to stop so that
+	 * the transposition table is free for the next search.
+	 */
+	public void stopPondering() throws InterruptedException {
+		if (pondering == null) {
+			return;
+		}
+		pondering.cancel();
+		await(ponderResult);
+		pondering = null;
+		ponderResult = null;
+	}
+
+	/*
+	 * Waits for the search until the deadline and then cancels it. A search is
+	 * always allowed to finish depth 1, so that there is a move to play.
+	 */
+	private static Analysis.Update finish(Analysis analysis, CompletableFuture<Analysis.Update> result,
+			long deadline) throws InterruptedException {
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 && analysis.latest().depth > 0) {
+				analysis.cancel();
+				return await(result);
+			}
+			try {
+				return result.get(Math.max(remaining, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				continue;
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("The search failed.", e.getCause());
+			}
+		}
+	}
+
+	private static Analysis.Update await(CompletableFuture<Analysis.Update> result) throws InterruptedException {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("The search failed.", e.getCause());
+		}
+	}
+
+	/**
+	 * @return The number of replies answered from a ponder search.
+	 */
+	public int ponderHits() {
+		return ponderHits;
+	}
+
+	/**
+	 * @return The number of ponder searches thrown away because the opponent
+	 *         played another move.
+	 */
+	public int ponderMisses() {
+		return ponderMisses;
+	}
+
+	/**
+	 * @return How long the last call to reply took, in nanoseconds.
+	 */
+	public long lastReplyNanos() {
+		return lastReplyNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ComputerPlayer[%s ponderHits=%d ponderMisses=%d lastReply=%.1f ms %s]",
+				white ? "White" : "Black", ponderHits, ponderMisses, lastReplyNanos / 1e6, table);
+	}
+}
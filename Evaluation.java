@@ -0,0 +1,457 @@
+/**
+ * The Evaluation class scores a position for automated play. The score is made
+ * up of material, middlegame/endgame piece-square tables, pawn structure,
+ * mobility and king safety, tapered between the middlegame and endgame values
+ * by how much material is left on the board. All scores are in centipawns.
+ *
+ * Material and piece-square sums are kept incrementally: an Evaluation is
+ * created once for a position and then updated by Chessboard.move (or by
+ * onMove/onUndo during a search), so a leaf evaluation only has to add the
+ * stored sums to the terms that depend on the whole board. The pawn structure
+ * term is looked up in a PawnHashTable by a pawn-only Zobrist hash that is kept
+ * up to date in the same way.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class Evaluation {
+
+	// Piece types, in the same order as the Chessmen enumerated type.
+	static final int KING = 0, QUEEN = 1, ROOK = 2, BISHOP = 3, KNIGHT = 4, PAWN = 5;
+
+	/** The game phase with all minor and major pieces still on the board. */
+	static final int MAX_PHASE = 24;
+
+	static final int[] MATERIAL_MG = { 0, 900, 500, 330, 320, 100 };
+	static final int[] MATERIAL_EG = { 0, 950, 520, 320, 300, 120 };
+	static final int[] PHASE = { 0, 4, 2, 1, 1, 0 };
+
+	/*
+	 * Piece-square tables, written from White's point of view with rank 8 on the
+	 * first line, so they read like a printed board. Black uses the same tables
+	 * mirrored vertically.
+	 */
+	static final int[][] PST_MG = {
+			{ // King
+					-30, -40, -40, -50, -50, -40, -40, -30, //
+					-30, -40, -40, -50, -50, -40, -40, -30, //
+					-30, -40, -40, -50, -50, -40, -40, -30, //
+					-30, -40, -40, -50, -50, -40, -40, -30, //
+					-20, -30, -30, -40, -40, -30, -30, -20, //
+					-10, -20, -20, -20, -20, -20, -20, -10, //
+					20, 20, 0, 0, 0, 0, 20, 20, //
+					20, 30, 10, 0, 0, 10, 30, 20 },
+			{ // Queen
+					-20, -10, -10, -5, -5, -10, -10, -20, //
+					-10, 0, 0, 0, 0, 0, 0, -10, //
+					-10, 0, 5, 5, 5, 5, 0, -10, //
+					-5, 0, 5, 5, 5, 5, 0, -5, //
+					0, 0, 5, 5, 5, 5, 0, -5, //
+					-10, 5, 5, 5, 5, 5, 0, -10, //
+					-10, 0, 5, 0, 0, 0, 0, -10, //
+					-20, -10, -10, -5, -5, -10, -10, -20 },
+			{ // Rook
+					0, 0, 0, 0, 0, 0, 0, 0, //
+					5, 10, 10, 10, 10, 10, 10, 5, //
+					-5, 0, 0, 0, 0, 0, 0, -5, //
+					-5, 0, 0, 0, 0, 0, 0, -5, //
+					-5, 0, 0, 0, 0, 0, 0, -5, //
+					-5, 0, 0, 0, 0, 0, 0, -5, //
+					-5, 0, 0, 0, 0, 0, 0, -5, //
+					0, 0, 0, 5, 5, 0, 0, 0 },
+			{ // Bishop
+					-20, -10, -10, -10, -10, -10, -10, -20, //
+					-10, 0, 0, 0, 0, 0, 0, -10, //
+					-10, 0, 5, 10, 10, 5, 0, -10, //
+					-10, 5, 5, 10, 10, 5, 5, -10, //
+					-10, 0, 10, 10, 10, 10, 0, -10, //
+					-10, 10, 10, 10, 10, 10, 10, -10, //
+					-10, 5, 0, 0, 0, 0, 5, -10, //
+					-20, -10, -10, -10, -10, -10, -10, -20 },
+			{ // Knight
+					-50, -40, -30, -30, -30, -30, -40, -50, //
+					-40, -20, 0, 0, 0, 0, -20, -40, //
+					-30, 0, 10, 15, 15, 10, 0, -30, //
+					-30, 5, 15, 20, 20, 15, 5, -30, //
+					-30, 0, 15, 20, 20, 15, 0, -30, //
+					-30, 5, 10, 15, 15, 10, 5, -30, //
+					-40, -20, 0, 5, 5, 0, -20, -40, //
+					-50, -40, -30, -30, -30, -30, -40, -50 },
+			{ // Pawn
+					0, 0, 0, 0, 0, 0, 0, 0, //
+					50, 50, 50, 50, 50, 50, 50, 50, //
+					10, 10, 20, 30, 30, 20, 10, 10, //
+					5, 5, 10, 25, 25, 10, 5, 5, //
+					0, 0, 0, 20, 20, 0, 0, 0, //
+					5, -5, -10, 0, 0, -10, -5, 5, //
+					5, 10, 10, -20, -20, 10, 10, 5, //
+					0, 0, 0, 0, 0, 0, 0, 0 } };
+
+	static final int[][] PST_EG = {
+			{ // King: head for the centre once the queens are gone
+					-50, -40, -30, -20, -20, -30, -40, -50, //
+					-30, -20, -10, 0, 0, -10, -20, -30, //
+					-30, -10, 20, 30, 30, 20, -10, -30, //
+					-30, -10, 30, 40, 40, 30, -10, -30, //
+					-30, -10, 30, 40, 40, 30, -10, -30, //
+					-30, -10, 20, 30, 30, 20, -10, -30, //
+					-30, -30, 0, 0, 0, 0, -30, -30, //
+					-50, -30, -30, -30, -30, -30, -30, -50 },
+			PST_MG[QUEEN], PST_MG[ROOK], PST_MG[BISHOP], PST_MG[KNIGHT],
+			{ // Pawn: advancing matters more than the centre
+					0, 0, 0, 0, 0, 0, 0, 0, //
+					80, 80, 80, 80, 80, 80, 80, 80, //
+					50, 50, 50, 50, 50, 50, 50, 50, //
+					30, 30, 30, 30, 30, 30, 30, 30, //
+					20, 20, 20, 20, 20, 20, 20, 20, //
+					10, 10, 10, 10, 10, 10, 10, 10, //
+					10, 10, 10, 10, 10, 10, 10, 10, //
+					0, 0, 0, 0, 0, 0, 0, 0 } };
+
+	// Mobility per reachable square, by piece type.
+	static final int[] MOBILITY_MG = { 0, 1, 2, 4, 4, 0 };
+	static final int[] MOBILITY_EG = { 0, 2, 4, 5, 4, 0 };
+
+	// King safety only counts in the middlegame.
+	static final int SHIELD_NEAR = 10, SHIELD_FAR = 5, ATTACKER_NEAR_KING = -15;
+
+	static final int[][] KNIGHT_JUMPS = { { 2, 1 }, { 1, 2 }, { -1, 2 }, { -2, 1 }, { -2, -1 }, { -1, -2 },
+			{ 1, -2 }, { 2, -1 } };
+	static final int[][] DIAGONALS = { { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+	static final int[][] LINES = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+
+	/**
+	 * A per-term breakdown of an evaluation, for tuning. Every term is already
+	 * tapered and is from White's point of view.
+	 */
+	public static final class Breakdown {
+		public final int phase;
+		public final int material;
+		public final int pieceSquare;
+		public final int pawnStructure;
+		public final int mobility;
+		public final int kingSafety;
+
+		Breakdown(int phase, int material, int pieceSquare, int pawnStructure, int mobility, int kingSafety) {
+			this.phase = phase;
+			this.material = material;
+			this.pieceSquare = pieceSquare;
+			this.pawnStructure = pawnStructure;
+			this.mobility = mobility;
+			this.kingSafety = kingSafety;
+		}
+
+		public int total() {
+			return material + pieceSquare + pawnStructure + mobility + kingSafety;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"phase=%d/%d material=%d pieceSquare=%d pawnStructure=%d mobility=%d kingSafety=%d total=%d", phase,
+					MAX_PHASE, material, pieceSquare, pawnStructure, mobility, kingSafety, total());
+		}
+	}
+
+	// Incremental sums, White minus Black.
+	private int materialMg;
+	private int materialEg;
+	private int pstMg;
+	private int pstEg;
+	private int phase;
+	private long pawnKey;
+
+	private final PawnHashTable pawnTable;
+
+	// Scratch space for the whole-board terms, so evaluate does not allocate.
+	private final int[] terms = new int[2];
+
+	/**
+	 * Creates an evaluation for the given position. It must then be kept up to
+	 * date by passing it to Chessboard.move.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 */
+	public Evaluation(Chessboard.Chessmen[][] chessboard) {
+		this(chessboard, new PawnHashTable());
+	}
+
+	/**
+	 * Creates an evaluation for the given position that caches pawn structure
+	 * scores in the given table.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param pawnTable
+	 *            The pawn hash table to use. May be shared by evaluations used on
+	 *            the same thread.
+	 */
+	public Evaluation(Chessboard.Chessmen[][] chessboard, PawnHashTable pawnTable) {
+		this.pawnTable = pawnTable;
+		reset(chessboard);
+	}
+
+	/**
+	 * Recomputes the incremental sums from scratch.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 */
+	public void reset(Chessboard.Chessmen[][] chessboard) {
+		materialMg = materialEg = pstMg = pstEg = phase = 0;
+		pawnKey = 0L;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				add(chessboard[i][j], i, j, 1);
+			}
+		}
+	}
+
+	/**
+	 * Updates the incremental sums for a move that is about to be played. Must be
+	 * called before the board itself is changed.
+	 *
+	 * @param moving
+	 *            The piece on the initial square.
+	 * @param captured
+	 *            The piece on the final square, or EMPTY.
+	 */
+	public void onMove(Chessboard.Chessmen moving, int initI, int initJ, Chessboard.Chessmen captured, int finI, int finJ) {
+		add(moving, initI, initJ, -1);
+		add(captured, finI, finJ, -1);
+		add(moving, finI, finJ, 1);
+	}
+
+	/**
+	 * Reverses onMove with the same arguments, for use when a search takes a move
+	 * back.
+	 */
+	public void onUndo(Chessboard.Chessmen moving, int initI, int initJ, Chessboard.Chessmen captured, int finI, int finJ) {
+		add(moving, finI, finJ, -1);
+		add(captured, finI, finJ, 1);
+		add(moving, initI, initJ, 1);
+	}
+
+	private void add(Chessboard.Chessmen piece, int i, int j, int sign) {
+		if (piece == null || piece == Chessboard.Chessmen.EMPTY) {
+			return;
+		}
+		int type = typeOf(piece);
+		int s = Chessboard.isWhite(piece) ? sign : -sign;
+		int square = tableIndex(piece, i, j);
+		materialMg += s * MATERIAL_MG[type];
+		materialEg += s * MATERIAL_EG[type];
+		pstMg += s * PST_MG[type][square];
+		pstEg += s * PST_EG[type][square];
+		phase += sign * PHASE[type];
+		if (type == PAWN) {
+			pawnKey ^= Zobrist.key(piece, i, j);
+		}
+	}
+
+	/**
+	 * Scores the position for the side to move. Positive scores are good for the
+	 * side to move.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. Must match the incremental sums.
+	 * @param whiteToMove
+	 *            true if it is White's (Player 1's) turn.
+	 * @return The score in centipawns.
+	 */
+	public int evaluate(Chessboard.Chessmen[][] chessboard, boolean whiteToMove) {
+		int p = phase();
+		int mg = materialMg + pstMg;
+		int eg = materialEg + pstEg;
+
+		long pawns = pawnScore(chessboard);
+		mg += PawnHashTable.mg(pawns);
+		eg += PawnHashTable.eg(pawns);
+
+		terms[0] = terms[1] = 0;
+		mobility(chessboard, terms);
+		mg += terms[0] + kingSafety(chessboard);
+		eg += terms[1];
+
+		int score = taper(mg, eg, p);
+		return whiteToMove ? score : -score;
+	}
+
+	/**
+	 * Scores the position term by term from White's point of view.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. Must match the incremental sums.
+	 * @return The tapered value of each term.
+	 */
+	public Breakdown breakdown(Chessboard.Chessmen[][] chessboard) {
+		int p = phase();
+		long pawns = pawnScore(chessboard);
+		int[] mobility = new int[2];
+		mobility(chessboard, mobility);
+		return new Breakdown(p, taper(materialMg, materialEg, p), taper(pstMg, pstEg, p),
+				taper(PawnHashTable.mg(pawns), PawnHashTable.eg(pawns), p), taper(mobility[0], mobility[1], p),
+				taper(kingSafety(chessboard), 0, p));
+	}
+
+	/**
+	 * @return The game phase, from MAX_PHASE (opening) down to 0 (bare kings and
+	 *         pawns).
+	 */
+	public int phase() {
+		return Math.min(phase, MAX_PHASE);
+	}
+
+	static int taper(int mg, int eg, int phase) {
+		return (mg * phase + eg * (MAX_PHASE - phase)) / MAX_PHASE;
+	}
+
+	/*
+	 * Returns the packed pawn structure score, from the pawn hash table if the
+	 * pawns have been seen before.
+	 */
+	private long pawnScore(Chessboard.Chessmen[][] chessboard) {
+		long packed = pawnTable.probe(pawnKey);
+		if (packed == PawnHashTable.MISS) {
+			terms[0] = terms[1] = 0;
+			PawnStructure.score(chessboard, terms);
+			packed = pawnTable.store(pawnKey, terms[0], terms[1]);
+		}
+		return packed;
+	}
+
+	/**
+	 * @return The pawn-only Zobrist hash of the position.
+	 */
+	public long pawnKey() {
+		return pawnKey;
+	}
+
+	public PawnHashTable pawnTable() {
+		return pawnTable;
+	}
+
+	/*
+	 * Adds mobility (White minus Black) to terms[0] and terms[1]. A square counts
+	 * if it is empty or holds an enemy piece.
+	 */
+	static void mobility(Chessboard.Chessmen[][] chessboard, int[] terms) {
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				Chessboard.Chessmen piece = chessboard[i][j];
+				if (piece == Chessboard.Chessmen.EMPTY) {
+					continue;
+				}
+				int type = typeOf(piece);
+				boolean white = Chessboard.isWhite(piece);
+				int count;
+				switch (type) {
+				case KNIGHT:
+					count = countSteps(chessboard, i, j, white, KNIGHT_JUMPS);
+					break;
+				case BISHOP:
+					count = countRays(chessboard, i, j, white, DIAGONALS);
+					break;
+				case ROOK:
+					count = countRays(chessboard, i, j, white, LINES);
+					break;
+				case QUEEN:
+					count = countRays(chessboard, i, j, white, DIAGONALS) + countRays(chessboard, i, j, white, LINES);
+					break;
+				default:
+					continue;
+				}
+				int s = white ? 1 : -1;
+				terms[0] += s * count * MOBILITY_MG[type];
+				terms[1] += s * count * MOBILITY_EG[type];
+			}
+		}
+	}
+
+	private static int countSteps(Chessboard.Chessmen[][] chessboard, int i, int j, boolean white, int[][] steps) {
+		int count = 0;
+		for (int[] step : steps) {
+			int r = i + step[0];
+			int c = j + step[1];
+			if (r >= 0 && r < 8 && c >= 0 && c < 8 && !Chessboard.isOwn(chessboard[r][c], white)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static int countRays(Chessboard.Chessmen[][] chessboard, int i, int j, boolean white, int[][] directions) {
+		int count = 0;
+		for (int[] d : directions) {
+			for (int r = i + d[0], c = j + d[1]; r >= 0 && r < 8 && c >= 0 && c < 8; r += d[0], c += d[1]) {
+				if (chessboard[r][c] == Chessboard.Chessmen.EMPTY) {
+					count++;
+					continue;
+				}
+				if (!Chessboard.isOwn(chessboard[r][c], white)) {
+					count++;
+				}
+				break;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Middlegame king safety (White minus Black): own pawns sheltering the king and
+	 * enemy pieces within two squares of it.
+	 */
+	static int kingSafety(Chessboard.Chessmen[][] chessboard) {
+		int score = 0;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				if (chessboard[i][j] == Chessboard.Chessmen.WHITE_KING) {
+					score += kingSafety(chessboard, i, j, true);
+				} else if (chessboard[i][j] == Chessboard.Chessmen.BLACK_KING) {
+					score -= kingSafety(chessboard, i, j, false);
+				}
+			}
+		}
+		return score;
+	}
+
+	private static int kingSafety(Chessboard.Chessmen[][] chessboard, int kingI, int kingJ, boolean white) {
+		int score = 0;
+		Chessboard.Chessmen ownPawn = white ? Chessboard.Chessmen.WHITE_PAWN : Chessboard.Chessmen.BLACK_PAWN;
+		int step = white ? 1 : -1;
+		for (int c = Math.max(0, kingJ - 1); c <= Math.min(7, kingJ + 1); c++) {
+			int near = kingI + step;
+			int far = kingI + 2 * step;
+			if (near >= 0 && near < 8 && chessboard[near][c] == ownPawn) {
+				score += SHIELD_NEAR;
+			} else if (far >= 0 && far < 8 && chessboard[far][c] == ownPawn) {
+				score += SHIELD_FAR;
+			}
+		}
+
+		for (int r = Math.max(0, kingI - 2); r <= Math.min(7, kingI + 2); r++) {
+			for (int c = Math.max(0, kingJ - 2); c <= Math.min(7, kingJ + 2); c++) {
+				Chessboard.Chessmen piece = chessboard[r][c];
+				if (piece != Chessboard.Chessmen.EMPTY && !Chessboard.isOwn(piece, white) && typeOf(piece) != PAWN
+						&& typeOf(piece) != KING) {
+					score += ATTACKER_NEAR_KING;
+				}
+			}
+		}
+		return score;
+	}
+
+	static int typeOf(Chessboard.Chessmen piece) {
+		return piece.ordinal() % 6;
+	}
+
+	/*
+	 * Index into a piece-square table. The tables have rank 8 first, and row 0 of
+	 * the chessboard is rank 1, so White reads them upside down and Black reads
+	 * them as written.
+	 */
+	static int tableIndex(Chessboard.Chessmen piece, int i, int j) {
+		return Chessboard.isWhite(piece) ? (7 - i) * 8 + j : i * 8 + j;
+	}
+}
@@ -0,0 +1,478 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The GameArena class keeps the state of many live games outside the Java heap,
+ * so that the heap, and with it the garbage collector's work, stays the same
+ * size however many games are live. Each game has a fixed-size slot in a direct
+ * ByteBuffer holding its board (one byte per square, encoded as in
+ * CompactBoard), the side to move, the ply, both players' clocks and the
+ * position's Zobrist hash.
+ *
+ * Games are referred to by handle. A handle carries its slot's generation,
+ * which changes when the game is freed, so a handle kept after free is caught
+ * rather than reading whatever game reuses the slot. Freed slots are recycled
+ * from a free list before new ones are used. Slots are allocated in chunks of
+ * at most SLOTS_PER_CHUNK, as needed, so a large arena neither hits the 2GB
+ * limit of a single buffer nor takes its memory up front.
+ *
+ * The rules are only written for a Chessmen[][], so rule checks run on a heap
+ * copy: checking a move or working out the legal moves first copies the slot's
+ * 64 squares into a scratch board belonging to the calling thread, which is
+ * reused from call to call. A legal move is then applied directly to the slot,
+ * updating the hash incrementally. Games in different slots can be played from
+ * different threads at once: each slot is guarded by one of STRIPES locks,
+ * chosen by slot number, and only starting and freeing games take the arena's
+ * own lock. The buffers are only ever accessed by absolute index, so threads
+ * never share a buffer position.
+ *
+ * Usage: java GameArena [games] [moves] [threads] creates the games and plays
+ * random legal moves in them, reporting speed and heap use.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameArena {
+
+	/** The bytes used by each game. */
+	public static final int SLOT_SIZE = 128;
+
+	/** The most slots held in one buffer: 128MB. */
+	public static final int SLOTS_PER_CHUNK = 1 << 20;
+
+	/** The number of locks the slots are spread over. */
+	public static final int STRIPES = 256;
+
+	// Slot layout. The board is at offset 0, one byte per square i * 8 + j.
+	private static final int SIDE = 64; // byte: 0 if White is to move, 1 if Black
+	private static final int IN_USE = 65; // byte: 1 while the game is live
+	private static final int PLY = 68; // int
+	private static final int GENERATION = 72; // int
+	private static final int HASH = 80; // long
+	private static final int WHITE_CLOCK = 88; // long, milliseconds left
+	private static final int BLACK_CLOCK = 96; // long, milliseconds left
+
+	private static final ThreadLocal<Chessboard.Chessmen[][]> SCRATCH = ThreadLocal
+			.withInitial(() -> new Chessboard.Chessmen[8][8]);
+
+	private final int capacity;
+	private final ByteBuffer[] chunks;
+	private final Object[] stripes = new Object[STRIPES];
+
+	// Guarded by this.
+	private final int[] free;
+	private int freeCount;
+	private int used; // Slots below this have been handed out at least once.
+	private int live;
+
+	private final byte[] initialSquares = new byte[64];
+	private final long initialHash;
+
+	/**
+	 * Creates an empty arena. No memory is taken until games are added.
+	 *
+	 * @param capacity
+	 *            The most games that can be live at once.
+	 */
+	public GameArena(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Arena capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.chunks = new ByteBuffer[(capacity + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK];
+		this.free = new int[capacity];
+		for (int k = 0; k < STRIPES; k++) {
+			stripes[k] = new Object();
+		}
+
+		Chessboard.Chessmen[][] start = Chessboard.newBoard();
+		for (int square = 0; square < 64; square++) {
+			initialSquares[square] = (byte) start[square >> 3][square & 7].ordinal();
+		}
+		this.initialHash = Zobrist.hash(start, true);
+	}
+
+	/**
+	 * Starts a new game from the initial position.
+	 *
+	 * @param clockMillis
+	 *            The time each player starts with.
+	 * @return The game's handle.
+	 * @throws IllegalStateException
+	 *             If capacity games are already live.
+	 */
+	public long newGame(long clockMillis) {
+		int slot;
+		synchronized (this) {
+			if (freeCount > 0) {
+				slot = free[--freeCount];
+			} else if (used < capacity) {
+				slot = used++;
+				if ((slot & (SLOTS_PER_CHUNK - 1)) == 0) {
+					int size = Math.min(SLOTS_PER_CHUNK, capacity - slot);
+					chunks[slot / SLOTS_PER_CHUNK] = ByteBuffer.allocateDirect(size * SLOT_SIZE)
+							.order(ByteOrder.nativeOrder());
+				}
+			} else {
+				throw new IllegalStateException("The arena is full: " + capacity + " games are live.");
+			}
+			live++;
+		}
+
+		// The slot is ours alone now; its lock publishes it to other threads.
+		synchronized (stripe(slot)) {
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			chunk.put(base, initialSquares, 0, 64);
+			chunk.put(base + SIDE, (byte) 0);
+			chunk.put(base + IN_USE, (byte) 1);
+			chunk.putInt(base + PLY, 0);
+			chunk.putLong(base + HASH, initialHash);
+			chunk.putLong(base + WHITE_CLOCK, clockMillis);
+			chunk.putLong(base + BLACK_CLOCK, clockMillis);
+			return (long) chunk.getInt(base + GENERATION) << 32 | slot;
+		}
+	}
+
+	/**
+	 * Ends a game and recycles its slot. The handle is no longer valid.
+	 */
+	public void free(long handle) {
+		int slot = (int) handle;
+		synchronized (stripe(slot)) {
+			slot = slot(handle);
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			chunk.put(base + IN_USE, (byte) 0);
+			chunk.putInt(base + GENERATION, chunk.getInt(base + GENERATION) + 1);
+		}
+		synchronized (this) {
+			free[freeCount++] = slot;
+			live--;
+		}
+	}
+
+	/**
+	 * @return true if the handle refers to a live game.
+	 */
+	public boolean isLive(long handle) {
+		int slot = (int) handle;
+		if (slot < 0 || slot >= capacity) {
+			return false;
+		}
+		synchronized (stripe(slot)) {
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			return chunk != null && chunk.get(base + IN_USE) == 1
+					&& chunk.getInt(base + GENERATION) == (int) (handle >>> 32);
+		}
+	}
+
+	/**
+	 * Checks a move for the side to move and, if it is legal, plays it.
+	 *
+	 * @return LEGAL if the move was played, otherwise the rule it breaks. The
+	 *         game is unchanged unless the move was legal.
+	 */
+	public Chessboard.RuleCheck apply(long handle, int initI, int initJ, int finI, int finJ) {
+		return apply(handle, initI, initJ, finI, finJ, 0);
+	}
+
+	/**
+	 * Checks a move for the side to move and, if it is legal, plays it and takes
+	 * the time the move took from the mover's clock.
+	 *
+	 * @param elapsedMillis
+	 *            The time the side to move spent on the move.
+	 * @return LEGAL if the move was played, otherwise the rule it breaks. The
+	 *         game is unchanged unless the move was legal.
+	 */
+	public Chessboard.RuleCheck apply(long handle, int initI, int initJ, int finI, int finJ, long elapsedMillis) {
+		Chessboard.Chessmen[][] scratch = SCRATCH.get();
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			boolean white = chunk.get(base + SIDE) == 0;
+
+			load(chunk, base, scratch);
+			Chessboard.RuleCheck result = Chessboard.ruleCheck(scratch, initI, initJ, finI, finJ, white);
+			if (result != Chessboard.RuleCheck.LEGAL) {
+				return result;
+			}
+
+			int clock = base + (white ? WHITE_CLOCK : BLACK_CLOCK);
+			chunk.putLong(clock, chunk.getLong(clock) - elapsedMillis);
+
+			int from = base + initI * 8 + initJ, to = base + finI * 8 + finJ;
+			Chessboard.Chessmen moving = CompactBoard.PIECES[chunk.get(from)];
+			Chessboard.Chessmen captured = CompactBoard.PIECES[chunk.get(to)];
+			chunk.put(to, chunk.get(from));
+			chunk.put(from, CompactBoard.EMPTY);
+			chunk.put(base + SIDE, (byte) (white ? 1 : 0));
+			chunk.putInt(base + PLY, chunk.getInt(base + PLY) + 1);
+			chunk.putLong(base + HASH,
+					chunk.getLong(base + HASH) ^ Zobrist.moveKey(moving, captured, initI, initJ, finI, finJ));
+			return result;
+		}
+	}
+
+	/**
+	 * Checks and plays a move typed as players type it, e.g. "e2 to e4".
+	 */
+	public Chessboard.RuleCheck apply(long handle, String move) {
+		return apply(handle, move, 0);
+	}
+
+	/**
+	 * Checks and plays a move typed as players type it, e.g. "e2 to e4", taking
+	 * the time it took from the mover's clock.
+	 */
+	public Chessboard.RuleCheck apply(long handle, String move, long elapsedMillis) {
+		int[] posVector = Chessboard.position(null, move);
+		return apply(handle, posVector[0], posVector[1], posVector[2], posVector[3], elapsedMillis);
+	}
+
+	/**
+	 * Takes time from the clock of the side to move without playing a move, e.g.
+	 * for a rejected attempt. Time for a move that is played is better passed to
+	 * apply, which charges the mover before the turn passes.
+	 *
+	 * @return The time that side has left, in milliseconds. May be negative.
+	 */
+	public long useTime(long handle, long millis) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			int clock = base + (chunk.get(base + SIDE) == 0 ? WHITE_CLOCK : BLACK_CLOCK);
+			long left = chunk.getLong(clock) - millis;
+			chunk.putLong(clock, left);
+			return left;
+		}
+	}
+
+	/**
+	 * @return The time the given side has left, in milliseconds.
+	 */
+	public long clock(long handle, boolean white) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			return chunk(slot).getLong(base(slot) + (white ? WHITE_CLOCK : BLACK_CLOCK));
+		}
+	}
+
+	public Chessboard.Chessmen piece(long handle, int i, int j) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			return CompactBoard.PIECES[chunk(slot).get(base(slot) + i * 8 + j)];
+		}
+	}
+
+	public boolean whiteToMove(long handle) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			return chunk(slot).get(base(slot) + SIDE) == 0;
+		}
+	}
+
+	public int ply(long handle) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			return chunk(slot).getInt(base(slot) + PLY);
+		}
+	}
+
+	/**
+	 * @return The Zobrist hash of the game's position, as Zobrist.hash would give.
+	 */
+	public long hash(long handle) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			return chunk(slot).getLong(base(slot) + HASH);
+		}
+	}
+
+	/**
+	 * Copies the game's board into chessboard, e.g. to print it.
+	 */
+	public void copyTo(long handle, Chessboard.Chessmen[][] chessboard) {
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			load(chunk(slot), base(slot), chessboard);
+		}
+	}
+
+	/**
+	 * Works out the legal moves of the side to move. The board is copied into the
+	 * calling thread's scratch board to do so, so no garbage is made.
+	 */
+	public void legalMoves(long handle, LegalMoves legalMoves) {
+		Chessboard.Chessmen[][] scratch = SCRATCH.get();
+		synchronized (stripe((int) handle)) {
+			int slot = slot(handle);
+			ByteBuffer chunk = chunk(slot);
+			int base = base(slot);
+			load(chunk, base, scratch);
+			legalMoves.compute(scratch, chunk.get(base + SIDE) == 0);
+		}
+	}
+
+	/**
+	 * @return The number of live games.
+	 */
+	public synchronized int size() {
+		return live;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The bytes of direct memory allocated so far.
+	 */
+	public synchronized long offHeapBytes() {
+		long bytes = 0;
+		for (ByteBuffer chunk : chunks) {
+			if (chunk != null) {
+				bytes += chunk.capacity();
+			}
+		}
+		return bytes;
+	}
+
+	/*
+	 * The lock for a slot. Any int will do, so a bad handle fails in slot rather
+	 * than here.
+	 */
+	private Object stripe(int slot) {
+		return stripes[slot & (STRIPES - 1)];
+	}
+
+	/*
+	 * Returns the slot a handle refers to, or throws if the game is no longer
+	 * live. Called with the slot's stripe held.
+	 */
+	private int slot(long handle) {
+		int slot = (int) handle;
+		ByteBuffer chunk = slot < 0 || slot >= capacity ? null : chunk(slot);
+		if (chunk == null) {
+			throw new IllegalArgumentException("Not a game handle: " + handle);
+		}
+		int base = base(slot);
+		if (chunk.get(base + IN_USE) != 1 || chunk.getInt(base + GENERATION) != (int) (handle >>> 32)) {
+			throw new IllegalArgumentException("The game with handle " + handle + " is not live.");
+		}
+		return slot;
+	}
+
+	private ByteBuffer chunk(int slot) {
+		return chunks[slot / SLOTS_PER_CHUNK];
+	}
+
+	private static int base(int slot) {
+		return (slot & (SLOTS_PER_CHUNK - 1)) * SLOT_SIZE;
+	}
+
+	private static void load(ByteBuffer chunk, int base, Chessboard.Chessmen[][] chessboard) {
+		for (int square = 0; square < 64; square++) {
+			chessboard[square >> 3][square & 7] = CompactBoard.PIECES[chunk.get(base + square)];
+		}
+	}
+
+	/*
+	 * The heap in use after a collection, as near as can be measured.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/*
+	 * Plays random legal moves, round robin, in the games handles[first] to
+	 * handles[last - 1], freeing and replacing any game left with no legal moves.
+	 * Each move is charged one second. Returns the number of moves played.
+	 */
+	private static long play(GameArena arena, long[] handles, int first, int last, int moves, long seed) {
+		LegalMoves legalMoves = new LegalMoves();
+		SplittableRandom random = new SplittableRandom(seed);
+		long played = 0;
+		for (int round = 0; round < moves; round++) {
+			for (int g = first; g < last; g++) {
+				arena.legalMoves(handles[g], legalMoves);
+				if (legalMoves.count() == 0) {
+					arena.free(handles[g]);
+					handles[g] = arena.newGame(5 * 60 * 1000);
+					continue;
+				}
+				// Pick the n-th legal move.
+				int n = random.nextInt(legalMoves.count());
+				for (int from = 0; from < 64; from++) {
+					long mask = legalMoves.destinations(from >> 3, from & 7);
+					int bits = Long.bitCount(mask);
+					if (n >= bits) {
+						n -= bits;
+						continue;
+					}
+					for (; n > 0; n--) {
+						mask &= mask - 1;
+					}
+					int to = Long.numberOfTrailingZeros(mask);
+					arena.apply(handles[g], from >> 3, from & 7, to >> 3, to & 7, 1000);
+					played++;
+					break;
+				}
+			}
+		}
+		return played;
+	}
+
+	/**
+	 * Creates games and plays random legal moves in them, splitting the games
+	 * between threads. Prints the speed and the heap in use before and after.
+	 *
+	 * @param args
+	 *            The number of games (default 50000), of moves per game (default
+	 *            40) and of threads (default 1).
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		GameArena arena = new GameArena(games);
+		long[] handles = new long[games];
+		long heapBefore = usedHeap();
+
+		long start = System.nanoTime();
+		for (int g = 0; g < games; g++) {
+			handles[g] = arena.newGame(5 * 60 * 1000);
+		}
+		long[] played = new long[threads];
+		List<Thread> players = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int n = t;
+			Thread player = new Thread(() -> played[n] = play(arena, handles, (int) ((long) games * n / threads),
+					(int) ((long) games * (n + 1) / threads), moves, n + 1), "game-arena-player-" + t);
+			players.add(player);
+			player.start();
+		}
+		long total = 0;
+		for (int t = 0; t < threads; t++) {
+			players.get(t).join();
+			total += played[t];
+		}
+		long nanos = System.nanoTime() - start;
+		long heapAfter = usedHeap();
+
+		System.out.printf("%d live games, %d moves on %d threads in %.2f s (%.0f moves/s)%n", arena.size(), total,
+				threads, nanos / 1e9, total * 1e9 / nanos);
+		System.out.printf("off-heap %.1f MB; heap in use %.1f MB before, %.1f MB after%n",
+				arena.offHeapBytes() / 1e6, heapBefore / 1e6, heapAfter / 1e6);
+	}
+}
@@ -0,0 +1,225 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The GameJournal class is an append-only log of accepted moves, shared by all
+ * live games. Each record is a fixed 16 bytes: the game id, the ply number and
+ * the initial and final squares of the move. A record with ply 0 starts a new
+ * game from the initial position.
+ * 
+ * Records are buffered and written to disk with an fsync once syncEvery records
+ * have built up or the oldest buffered record has waited syncMillis, whichever
+ * comes first, so many moves share the cost of one fsync. append only checks
+ * the time as records arrive; the owner of the journal must call syncIfDue
+ * regularly (GameStore does so from a timer) so that the last moves of a game
+ * that has gone quiet are not left in the buffer. The journal is split into
+ * numbered segment files; GameStore starts a new segment whenever it takes a
+ * snapshot, and deletes the segments that the snapshot makes redundant.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameJournal implements Closeable {
+
+	public static final int RECORD_BYTES = 16;
+
+	// Written into the unused high bits of each move so torn or garbage records
+	// are not replayed.
+	private static final int MOVE_MAGIC = 0xC4E5 << 16;
+
+	/**
+	 * Receives the records read back by replay.
+	 */
+	public interface Replay {
+		void apply(long gameId, int ply, int initI, int initJ, int finI, int finJ);
+	}
+
+	private final Path directory;
+	private final int syncEvery;
+	private final long syncNanos;
+	private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096);
+
+	private FileChannel channel;
+	private long segment;
+	private int unsynced;
+	private long firstUnsynced; // When the oldest unsynced record was appended.
+
+	/**
+	 * Opens a journal segment for appending, creating it if necessary.
+	 * 
+	 * @param directory
+	 *            The directory holding the segment files.
+	 * @param segment
+	 *            The number of the segment to append to.
+	 * @param syncEvery
+	 *            The number of records that forces an fsync. 1 syncs every
+	 *            record.
+	 * @param syncMillis
+	 *            The longest time a record may wait for an fsync, provided
+	 *            syncIfDue is called often enough. 0 syncs every record.
+	 */
+	public GameJournal(Path directory, long segment, int syncEvery, long syncMillis) throws IOException {
+		this.directory = directory;
+		this.syncEvery = Math.max(1, syncEvery);
+		this.syncNanos = syncMillis * 1_000_000L;
+		open(segment);
+	}
+
+	private void open(long segment) throws IOException {
+		this.segment = segment;
+		channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Appends one record. It is durable once sync has run, which happens
+	 * automatically according to syncEvery and syncMillis.
+	 */
+	public void append(long gameId, int ply, int initI, int initJ, int finI, int finJ) throws IOException {
+		if (buffer.remaining() < RECORD_BYTES) {
+			write();
+		}
+		buffer.putLong(gameId);
+		buffer.putInt(ply);
+		buffer.putInt(MOVE_MAGIC | (initI * 8 + initJ) << 6 | (finI * 8 + finJ));
+
+		if (unsynced++ == 0) {
+			firstUnsynced = System.nanoTime();
+		}
+		if (unsynced >= syncEvery || isSyncDue()) {
+			sync();
+		}
+	}
+
+	/**
+	 * @return true if there are unsynced records and the oldest has waited
+	 *         syncMillis.
+	 */
+	public boolean isSyncDue() {
+		return unsynced > 0 && System.nanoTime() - firstUnsynced >= syncNanos;
+	}
+
+	/**
+	 * Syncs if the oldest unsynced record has waited syncMillis.
+	 * 
+	 * @return true if a sync was done.
+	 */
+	public boolean syncIfDue() throws IOException {
+		if (!isSyncDue()) {
+			return false;
+		}
+		sync();
+		return true;
+	}
+
+	/**
+	 * Writes out any buffered records and fsyncs the current segment.
+	 */
+	public void sync() throws IOException {
+		write();
+		if (unsynced > 0) {
+			channel.force(false);
+			unsynced = 0;
+		}
+	}
+
+	private void write() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Syncs the current segment and starts appending to the next one.
+	 * 
+	 * @return The number of the new segment.
+	 */
+	public long roll() throws IOException {
+		sync();
+		channel.close();
+		open(segment + 1);
+		return segment;
+	}
+
+	public long segment() {
+		return segment;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	public static Path segmentPath(Path directory, long segment) {
+		return directory.resolve(String.format("journal-%012d.log", segment));
+	}
+
+	/**
+	 * @return The numbers of the segment files in the directory, in order.
+	 */
+	public static List<Long> segments(Path directory) throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					segments.add(Long.parseLong(name.substring(8, name.length() - 4)));
+				} catch (NumberFormatException e) {
+					// Not one of ours.
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Reads back every complete record of a segment in order. Reading stops at
+	 * the first torn or corrupt record, which can only be at the end of a segment
+	 * that was being written when the process died.
+	 * 
+	 * @return The number of records replayed.
+	 */
+	public static long replay(Path segment, Replay replay) throws IOException {
+		long count = 0;
+		ByteBuffer in = ByteBuffer.allocate(RECORD_BYTES * 8192);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			while (true) {
+				int read = channel.read(in);
+				in.flip();
+				while (in.remaining() >= RECORD_BYTES) {
+					long gameId = in.getLong();
+					int ply = in.getInt();
+					int move = in.getInt();
+					if ((move & 0xFFFF0000) != MOVE_MAGIC || ply < 0) {
+						return count;
+					}
+					int from = (move >> 6) & 63;
+					int to = move & 63;
+					replay.apply(gameId, ply, from >> 3, from & 7, to >> 3, to & 7);
+					count++;
+				}
+				in.compact();
+				if (read < 0) {
+					break; // Anything left over is a torn record at the end of the segment
+				}
+			}
+		}
+		return count;
+	}
+}
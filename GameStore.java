@@ -0,0 +1,329 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GameStore class keeps every live game as a CompactBoard and makes it
+ * survive a crash. Each accepted move is written to a GameJournal, and every
+ * snapshotEvery moves the whole store is written to a snapshot file and the
+ * journal is moved on to a new segment.
+ * 
+ * Opening a store recovers it: the latest snapshot is loaded and only the
+ * journal written since is replayed, so recovery never replays more than
+ * snapshotEvery moves however long the games have been running. The time taken
+ * is available from recoveryNanos.
+ * 
+ * If the journal batches fsyncs by time, a daemon thread checks the journal
+ * every quarter of syncMillis and syncs it under the store's lock once the
+ * oldest unsynced move has waited syncMillis, so a move is on disk within about
+ * 1.25 * syncMillis even if no other move follows it. If that sync fails, the
+ * next call that writes to the store throws the error.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameStore implements Closeable {
+
+	private static final int SNAPSHOT_MAGIC = 0x43534E50; // "CSNP"
+	private static final String SNAPSHOT = "snapshot.bin";
+	private static final String SNAPSHOT_TEMP = "snapshot.tmp";
+
+	/**
+	 * One live game: its board and the number of moves played so far.
+	 */
+	static final class Game {
+		final long id;
+		final CompactBoard board;
+		int ply;
+
+		Game(long id, CompactBoard board, int ply) {
+			this.id = id;
+			this.board = board;
+			this.ply = ply;
+		}
+	}
+
+	private final Path directory;
+	private final int snapshotEvery;
+	private final Map<Long, Game> games = new HashMap<>();
+	private final CompactBoard initial = new CompactBoard(Chessboard.newBoard());
+
+	private GameJournal journal;
+	private ScheduledExecutorService flusher;
+	private IOException flushFailure;
+	private long sinceSnapshot;
+	private long recoveryNanos;
+	private long replayedRecords;
+
+	private GameStore(Path directory, int snapshotEvery) {
+		this.directory = directory;
+		this.snapshotEvery = Math.max(1, snapshotEvery);
+	}
+
+	/**
+	 * Opens the store in the given directory, recovering any games already saved
+	 * there.
+	 * 
+	 * @param directory
+	 *            Where the snapshot and journal are kept. Created if missing.
+	 * @param syncEvery
+	 *            See GameJournal.
+	 * @param syncMillis
+	 *            See GameJournal.
+	 * @param snapshotEvery
+	 *            The number of moves between snapshots. This bounds the amount of
+	 *            journal replayed on recovery.
+	 * @return The recovered store.
+	 */
+	public static GameStore open(Path directory, int syncEvery, long syncMillis, int snapshotEvery)
+			throws IOException {
+		Files.createDirectories(directory);
+		GameStore store = new GameStore(directory, snapshotEvery);
+
+		long start = System.nanoTime();
+		long segment = store.loadSnapshot();
+		for (long existing : GameJournal.segments(directory)) {
+			if (existing >= segment) {
+				store.replayedRecords += GameJournal.replay(GameJournal.segmentPath(directory, existing),
+						store::replay);
+				segment = existing + 1;
+			}
+		}
+		store.journal = new GameJournal(directory, segment, syncEvery, syncMillis);
+		store.sinceSnapshot = store.replayedRecords;
+		store.recoveryNanos = System.nanoTime() - start;
+
+		if (syncMillis > 0 && syncEvery > 1) {
+			long period = Math.max(1, TimeUnit.MILLISECONDS.toMicros(syncMillis) / 4);
+			store.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "game-store-flusher");
+				t.setDaemon(true);
+				return t;
+			});
+			store.flusher.scheduleWithFixedDelay(store::flush, period, period, TimeUnit.MICROSECONDS);
+		}
+		return store;
+	}
+
+	/*
+	 * Run by the flusher: syncs the journal if its oldest move has waited long
+	 * enough.
+	 */
+	private synchronized void flush() {
+		if (flushFailure != null) {
+			return;
+		}
+		try {
+			journal.syncIfDue();
+		} catch (IOException e) {
+			flushFailure = e;
+		}
+	}
+
+	/*
+	 * Rethrows a failure of the flusher, so that moves are not accepted into a
+	 * journal that can no longer be written.
+	 */
+	private void checkFlusher() throws IOException {
+		if (flushFailure != null) {
+			throw new IOException("The journal could not be synced.", flushFailure);
+		}
+	}
+
+	/*
+	 * Loads the snapshot, if there is one, and returns the first journal segment
+	 * written after it.
+	 */
+	private long loadSnapshot() throws IOException {
+		Path file = directory.resolve(SNAPSHOT);
+		if (!Files.exists(file)) {
+			return 0L;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a game snapshot: " + file);
+			}
+			long segment = in.readLong();
+			int count = in.readInt();
+			long[] packed = new long[CompactBoard.PACKED_LONGS];
+			for (int n = 0; n < count; n++) {
+				long id = in.readLong();
+				int ply = in.readInt();
+				for (int k = 0; k < packed.length; k++) {
+					packed[k] = in.readLong();
+				}
+				CompactBoard board = new CompactBoard();
+				board.unpack(packed, 0);
+				games.put(id, new Game(id, board, ply));
+			}
+			return segment;
+		}
+	}
+
+	private void replay(long gameId, int ply, int initI, int initJ, int finI, int finJ) {
+		if (ply == 0) {
+			games.put(gameId, new Game(gameId, initial.copy(), 0));
+			return;
+		}
+		Game game = games.get(gameId);
+		if (game != null && ply == game.ply + 1) {
+			game.board.move(initI, initJ, finI, finJ);
+			game.ply = ply;
+		}
+	}
+
+	/**
+	 * Starts a new game from the initial position.
+	 * 
+	 * @param gameId
+	 *            The id of the new game. Must not already be live.
+	 */
+	public synchronized void newGame(long gameId) throws IOException {
+		checkFlusher();
+		if (games.containsKey(gameId)) {
+			throw new IllegalArgumentException("Game " + gameId + " already exists.");
+		}
+		games.put(gameId, new Game(gameId, initial.copy(), 0));
+		journal.append(gameId, 0, 0, 0, 0, 0);
+		afterAppend();
+	}
+
+	/**
+	 * Plays an accepted move in a live game and journals it. The move is not
+	 * checked against the rules.
+	 * 
+	 * @return The ply number of the move.
+	 */
+	public synchronized int apply(long gameId, int initI, int initJ, int finI, int finJ) throws IOException {
+		checkFlusher();
+		Game game = game(gameId);
+		game.board.move(initI, initJ, finI, finJ);
+		game.ply++;
+		journal.append(gameId, game.ply, initI, initJ, finI, finJ);
+		afterAppend();
+		return game.ply;
+	}
+
+	private void afterAppend() throws IOException {
+		if (++sinceSnapshot >= snapshotEvery) {
+			snapshot();
+		}
+	}
+
+	/**
+	 * Writes every live game to a new snapshot, moves the journal on to a new
+	 * segment and deletes the segments the snapshot replaces. The snapshot is
+	 * written to a temporary file and renamed into place, so a crash part way
+	 * through leaves the previous snapshot intact.
+	 */
+	public synchronized void snapshot() throws IOException {
+		checkFlusher();
+		long segment = journal.roll();
+
+		Path temp = directory.resolve(SNAPSHOT_TEMP);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(segment);
+			out.writeInt(games.size());
+			long[] packed = new long[CompactBoard.PACKED_LONGS];
+			for (Game game : games.values()) {
+				out.writeLong(game.id);
+				out.writeInt(game.ply);
+				game.board.pack(packed, 0);
+				for (long word : packed) {
+					out.writeLong(word);
+				}
+			}
+		}
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		for (long old : GameJournal.segments(directory)) {
+			if (old < segment) {
+				Files.deleteIfExists(GameJournal.segmentPath(directory, old));
+			}
+		}
+		sinceSnapshot = 0;
+	}
+
+	private Game game(long gameId) {
+		Game game = games.get(gameId);
+		if (game == null) {
+			throw new IllegalArgumentException("No such game: " + gameId);
+		}
+		return game;
+	}
+
+	public synchronized boolean contains(long gameId) {
+		return games.containsKey(gameId);
+	}
+
+	/**
+	 * @return A copy of the game's board.
+	 */
+	public synchronized CompactBoard board(long gameId) {
+		return game(gameId).board.copy();
+	}
+
+	public synchronized int ply(long gameId) {
+		return game(gameId).ply;
+	}
+
+	/**
+	 * @return true if it is White's (Player 1's) turn in the given game.
+	 */
+	public synchronized boolean whiteToMove(long gameId) {
+		return game(gameId).ply % 2 == 0;
+	}
+
+	public synchronized int size() {
+		return games.size();
+	}
+
+	/**
+	 * Forces every journalled move to disk now rather than at the next batch.
+	 */
+	public synchronized void sync() throws IOException {
+		checkFlusher();
+		journal.sync();
+	}
+
+	/**
+	 * @return How long open took to recover the store, in nanoseconds.
+	 */
+	public long recoveryNanos() {
+		return recoveryNanos;
+	}
+
+	/**
+	 * @return How many journal records open replayed on top of the snapshot.
+	 */
+	public long replayedRecords() {
+		return replayedRecords;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		journal.close();
+	}
+}
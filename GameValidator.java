@@ -0,0 +1,348 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The GameValidator class checks an archive of games against the rules of the
+ * game, in bulk. Each line of the archive is one game: a game id followed by
+ * its moves in order, separated by tabs, with moves written as players type
+ * them (e.g. "e2 to e4"). White makes the first move.
+ *
+ * Games flow through four stages connected by bounded queues, so memory use
+ * stays flat however large the archive is: a reader, parsers that turn move
+ * text into coordinates, validators that replay each game and check every move
+ * with Chessboard.ruleCheck, and a writer that reports every illegal move with
+ * its game id and ply. Games are sharded across the validators by game id, one
+ * validator per core by default. Illegal moves are still played, so that the
+ * rest of the game is checked against the position that was actually reached.
+ *
+ * Usage: java GameValidator games.tsv [report.tsv]
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameValidator {
+
+	/** The number of items each queue can hold before its producer waits. */
+	public static final int QUEUE_CAPACITY = 1024;
+
+	/**
+	 * One game from the archive. Moves are packed as (from square << 6 | to
+	 * square), with squares numbered i * 8 + j, or -1 if the text could not be
+	 * parsed.
+	 */
+	static final class Game {
+		final long id;
+		final String[] text;
+		final int[] moves;
+
+		Game(long id, String[] text, int[] moves) {
+			this.id = id;
+			this.text = text;
+			this.moves = moves;
+		}
+	}
+
+	// Marks the end of the stream on each queue.
+	private static final String END_OF_LINES = new String();
+	private static final Game END_OF_GAMES = new Game(-1, new String[0], new int[0]);
+	private static final String END_OF_REPORT = new String();
+
+	private final int parsers;
+	private final int validators;
+
+	private final BlockingQueue<String> lines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final List<BlockingQueue<Game>> shards = new ArrayList<>();
+	private final BlockingQueue<String> report = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+	private final LongAdder games = new LongAdder();
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder illegal = new LongAdder();
+	private final LongAdder malformed = new LongAdder();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final List<Thread> threads = new ArrayList<>();
+
+	/**
+	 * @param parsers
+	 *            The number of parser threads.
+	 * @param validators
+	 *            The number of validator threads, i.e. shards.
+	 */
+	public GameValidator(int parsers, int validators) {
+		this.parsers = Math.max(1, parsers);
+		this.validators = Math.max(1, validators);
+		for (int n = 0; n < this.validators; n++) {
+			shards.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+		}
+	}
+
+	/**
+	 * Runs the whole pipeline and waits for it to finish.
+	 *
+	 * @param in
+	 *            The archive.
+	 * @param out
+	 *            Where illegal moves are reported, one per line.
+	 * @return A summary of the run, including throughput.
+	 */
+	public Summary run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+		if (!threads.isEmpty()) {
+			throw new IllegalStateException("A GameValidator can only be run once.");
+		}
+		long start = System.nanoTime();
+
+		threads.add(stage("reader", () -> read(in)));
+		AtomicInteger parsing = new AtomicInteger(parsers);
+		for (int n = 0; n < parsers; n++) {
+			threads.add(stage("parser-" + n, () -> parse(parsing)));
+		}
+		for (int n = 0; n < validators; n++) {
+			BlockingQueue<Game> shard = shards.get(n);
+			threads.add(stage("validator-" + n, () -> validate(shard)));
+		}
+		threads.add(stage("writer", () -> write(out)));
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Throwable cause = failure.get();
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		} else if (cause != null) {
+			throw new IllegalStateException("Validation failed.", cause);
+		}
+		return new Summary(games.sum(), moves.sum(), illegal.sum(), malformed.sum(), System.nanoTime() - start);
+	}
+
+	private interface Stage {
+		void run() throws IOException, InterruptedException;
+	}
+
+	/*
+	 * Wraps a stage in a thread. If any stage fails, every thread is interrupted so
+	 * that none is left waiting on a queue, and end-of-stream markers are no
+	 * longer passed on (see signal).
+	 */
+	private Thread stage(String name, Stage stage) {
+		Thread thread = new Thread(() -> {
+			try {
+				stage.run();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				if (failure.compareAndSet(null, e)) {
+					for (Thread other : threads) {
+						other.interrupt();
+					}
+				}
+			}
+		}, "game-validator-" + name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private void read(BufferedReader in) throws IOException, InterruptedException {
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty()) {
+					lines.put(line);
+				}
+			}
+		} finally {
+			for (int n = 0; n < parsers; n++) {
+				signal(lines, END_OF_LINES);
+			}
+		}
+	}
+
+	/*
+	 * Passes an end-of-stream marker downstream, waiting for room on the queue
+	 * only while the pipeline is healthy. Once a stage has failed, the stage that
+	 * would take the marker may be gone, and every thread is stopping anyway.
+	 */
+	private <T> void signal(BlockingQueue<T> queue, T marker) throws InterruptedException {
+		while (failure.get() == null) {
+			if (queue.offer(marker, 10, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	private void parse(AtomicInteger parsing) throws InterruptedException {
+		try {
+			String line;
+			while ((line = lines.take()) != END_OF_LINES) {
+				Game game = parse(line);
+				if (game == null) {
+					malformed.increment();
+					continue;
+				}
+				shards.get((int) Math.floorMod(game.id, (long) validators)).put(game);
+			}
+		} finally {
+			// The last parser to finish tells every validator that there is no more work.
+			if (parsing.decrementAndGet() == 0) {
+				for (BlockingQueue<Game> shard : shards) {
+					signal(shard, END_OF_GAMES);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses one line of the archive.
+	 *
+	 * @return The game, or null if the line does not start with a game id.
+	 */
+	static Game parse(String line) {
+		String[] fields = line.split("\t");
+		long id;
+		try {
+			id = Long.parseLong(fields[0].trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+
+		String[] text = new String[fields.length - 1];
+		int[] packed = new int[fields.length - 1];
+		for (int ply = 0; ply < text.length; ply++) {
+			text[ply] = fields[ply + 1];
+			packed[ply] = pack(Chessboard.position(null, text[ply]));
+		}
+		return new Game(id, text, packed);
+	}
+
+	/**
+	 * @return The coordinates from Chessboard.position packed into one int, or -1
+	 *         if they are off the board.
+	 */
+	static int pack(int[] posVector) {
+		for (int k : posVector) {
+			if (k < 0 || k > 7) {
+				return -1;
+			}
+		}
+		return (posVector[0] * 8 + posVector[1]) << 6 | (posVector[2] * 8 + posVector[3]);
+	}
+
+	private void validate(BlockingQueue<Game> shard) throws InterruptedException {
+		try {
+			// One board per validator, reset for each game.
+			CompactBoard initial = new CompactBoard(Chessboard.newBoard());
+			Chessboard.Chessmen[][] chessboard = new Chessboard.Chessmen[8][8];
+
+			Game game;
+			while ((game = shard.take()) != END_OF_GAMES) {
+				initial.copyTo(chessboard);
+				for (int ply = 0; ply < game.moves.length; ply++) {
+					int move = game.moves[ply];
+					boolean white = ply % 2 == 0;
+					Chessboard.RuleCheck result;
+					if (move < 0) {
+						result = Chessboard.RuleCheck.INVALID_COORDINATES;
+					} else {
+						int from = move >> 6;
+						int to = move & 63;
+						result = Chessboard.ruleCheck(chessboard, from >> 3, from & 7, to >> 3, to & 7, white);
+						chessboard[to >> 3][to & 7] = chessboard[from >> 3][from & 7];
+						chessboard[from >> 3][from & 7] = Chessboard.Chessmen.EMPTY;
+					}
+					if (result != Chessboard.RuleCheck.LEGAL) {
+						illegal.increment();
+						report.put(game.id + "\t" + ply + "\t" + game.text[ply] + "\t" + result + "\t"
+								+ result.message(white));
+					}
+				}
+				games.increment();
+				moves.add(game.moves.length);
+			}
+		} finally {
+			signal(report, END_OF_REPORT);
+		}
+	}
+
+	private void write(Writer out) throws IOException, InterruptedException {
+		int running = validators;
+		while (running > 0) {
+			String line = report.take();
+			if (line == END_OF_REPORT) {
+				running--;
+				continue;
+			}
+			out.write(line);
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * The totals for one run of the pipeline.
+	 */
+	public static final class Summary {
+		public final long games;
+		public final long moves;
+		public final long illegal;
+		public final long malformed;
+		public final long nanos;
+
+		Summary(long games, long moves, long illegal, long malformed, long nanos) {
+			this.games = games;
+			this.moves = moves;
+			this.illegal = illegal;
+			this.malformed = malformed;
+			this.nanos = nanos;
+		}
+
+		public double movesPerSecond() {
+			return nanos == 0 ? 0.0 : moves * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d games, %d moves, %d illegal moves, %d malformed lines in %.2f s (%.0f moves/s)",
+					games, moves, illegal, malformed, nanos / 1e9, movesPerSecond());
+		}
+	}
+
+	/**
+	 * Validates the archive named by args[0] and writes the report to args[1], or
+	 * to the console if there is no args[1]. The summary is printed to the error
+	 * stream.
+	 *
+	 * @param args
+	 *            The archive and, optionally, the report file.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: java GameValidator games.tsv [report.tsv]");
+			System.exit(2);
+		}
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		GameValidator validator = new GameValidator(Math.max(1, cores / 4), cores);
+
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8);
+				Writer out = args.length > 1 ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+						: new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+			System.err.println(validator.run(in, out));
+		}
+	}
+}
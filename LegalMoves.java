@@ -0,0 +1,106 @@
+/**
+ * The LegalMoves class holds every legal move for the side to move in one
+ * position, as a bitmask of destination squares for each starting square.
+ * Squares are numbered i * 8 + j, so bit (finI * 8 + finJ) of
+ * destinations(initI, initJ) is set if that move passes Chessboard.ruleCheck.
+ *
+ * The set is computed once per position, the first time it is needed, and
+ * stays valid until invalidate is called after a move. Checking a move or
+ * listing the moves of one piece is then a lookup.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class LegalMoves {
+
+	private final long[] destinations = new long[64];
+	private boolean white;
+	private boolean valid;
+	private int count;
+
+	/**
+	 * Makes sure the set describes the given position, computing it if it was
+	 * invalidated or was computed for the other side.
+	 *
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param white
+	 *            true if it is White's (Player 1's) turn.
+	 * @return This set.
+	 */
+	public LegalMoves update(Chessboard.Chessmen[][] chessboard, boolean white) {
+		if (!valid || this.white != white) {
+			compute(chessboard, white);
+		}
+		return this;
+	}
+
+	/**
+	 * Recomputes the set from scratch for the given position.
+	 */
+	public void compute(Chessboard.Chessmen[][] chessboard, boolean white) {
+		count = 0;
+		for (int from = 0; from < 64; from++) {
+			long mask = 0L;
+			int initI = from >> 3, initJ = from & 7;
+			if (Chessboard.isOwn(chessboard[initI][initJ], white)) {
+				for (int to = 0; to < 64; to++) {
+					if (Chessboard.ruleCheck(chessboard, initI, initJ, to >> 3, to & 7,
+							white) == Chessboard.RuleCheck.LEGAL) {
+						mask |= 1L << to;
+					}
+				}
+			}
+			destinations[from] = mask;
+			count += Long.bitCount(mask);
+		}
+		this.white = white;
+		this.valid = true;
+	}
+
+	/**
+	 * Marks the set as out of date. Must be called whenever the position changes.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * @return true if the move is legal. Coordinates off the board are never
+	 *         legal.
+	 */
+	public boolean isLegal(int initI, int initJ, int finI, int finJ) {
+		if (!valid) {
+			throw new IllegalStateException("Legal moves have not been computed for this position.");
+		}
+		if (initI < 0 || initI > 7 || initJ < 0 || initJ > 7 || finI < 0 || finI > 7 || finJ < 0 || finJ > 7) {
+			return false;
+		}
+		return (destinations[initI * 8 + initJ] & (1L << (finI * 8 + finJ))) != 0;
+	}
+
+	/**
+	 * @return The bitmask of squares the piece on row i, column j may move to.
+	 */
+	public long destinations(int i, int j) {
+		if (!valid) {
+			throw new IllegalStateException("Legal moves have not been computed for this position.");
+		}
+		return destinations[i * 8 + j];
+	}
+
+	/**
+	 * @return The number of legal moves in the position.
+	 */
+	public int count() {
+		return count;
+	}
+
+	public boolean white() {
+		return white;
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * The PawnHashTable class caches pawn structure scores by the pawn-only Zobrist
+ * hash of a position. Pawns move rarely compared with other pieces, so most
+ * evaluations find their pawn score here instead of scanning the board.
+ * 
+ * The table is a fixed number of slots held in primitive arrays. Each hash maps
+ * to exactly one slot and a new entry always replaces the old one. A table is
+ * not thread-safe and should belong to a single search or game.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class PawnHashTable {
+
+	/** Returned by probe when the hash is not in the table. */
+	public static final long MISS = Long.MIN_VALUE;
+
+	/** The default number of slots (16384 slots use 256KB). */
+	public static final int DEFAULT_SIZE = 1 << 14;
+
+	/*
+	 * An unused slot has key 0 and score 0. The hash of a board with no pawns is
+	 * also 0 and its pawn score is also 0, so unused slots need no extra marker.
+	 */
+	private final long[] keys;
+	private final long[] scores;
+	private final int mask;
+
+	private long hits;
+	private long misses;
+	private long replacements;
+
+	/**
+	 * Creates an empty table.
+	 * 
+	 * @param size
+	 *            The number of slots. Rounded up to a power of two.
+	 */
+	public PawnHashTable(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pawn hash table size must be positive: " + size);
+		}
+		int slots = Integer.highestOneBit(size);
+		if (slots < size) {
+			slots <<= 1;
+		}
+		keys = new long[slots];
+		scores = new long[slots];
+		mask = slots - 1;
+	}
+
+	public PawnHashTable() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Looks up a pawn structure score.
+	 * 
+	 * @param pawnKey
+	 *            The pawn-only Zobrist hash of the position.
+	 * @return The packed middlegame and endgame scores (see mg and eg), or MISS.
+	 */
+	public long probe(long pawnKey) {
+		int slot = (int) pawnKey & mask;
+		if (keys[slot] == pawnKey) {
+			hits++;
+			return scores[slot];
+		}
+		misses++;
+		return MISS;
+	}
+
+	/**
+	 * Stores a pawn structure score, replacing whatever was in its slot.
+	 * 
+	 * @param pawnKey
+	 *            The pawn-only Zobrist hash of the position.
+	 * @param mg
+	 *            The middlegame pawn structure score, White minus Black.
+	 * @param eg
+	 *            The endgame pawn structure score, White minus Black.
+	 * @return The packed scores.
+	 */
+	public long store(long pawnKey, int mg, int eg) {
+		int slot = (int) pawnKey & mask;
+		if (keys[slot] != pawnKey && keys[slot] != 0L) {
+			replacements++;
+		}
+		long packed = ((long) mg << 32) | (eg & 0xFFFFFFFFL);
+		keys[slot] = pawnKey;
+		scores[slot] = packed;
+		return packed;
+	}
+
+	public static int mg(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	public static int eg(long packed) {
+		return (int) packed;
+	}
+
+	public long hits() {
+		return hits;
+	}
+
+	public long misses() {
+		return misses;
+	}
+
+	public long replacements() {
+		return replacements;
+	}
+
+	/**
+	 * @return The fraction of probes that found their entry, between 0 and 1.
+	 */
+	public double hitRate() {
+		long probes = hits + misses;
+		return probes == 0 ? 0.0 : (double) hits / probes;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		Arrays.fill(scores, 0L);
+		hits = misses = replacements = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PawnHashTable[slots=%d hits=%d misses=%d replacements=%d hitRate=%.1f%%]", keys.length,
+				hits, misses, replacements, 100.0 * hitRate());
+	}
+}
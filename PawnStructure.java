@@ -0,0 +1,124 @@
+/**
+ * The PawnStructure class scores the pawns of a position: passed, isolated,
+ * doubled and backward pawns. The score depends on the pawns alone, which is
+ * what lets Evaluation cache it in a PawnHashTable.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class PawnStructure {
+
+	// Indexed by how far the pawn has advanced (0 = own back rank).
+	static final int[] PASSED_MG = { 0, 5, 10, 15, 25, 40, 60, 0 };
+	static final int[] PASSED_EG = { 0, 10, 15, 25, 40, 65, 100, 0 };
+	static final int DOUBLED_MG = -10, DOUBLED_EG = -20;
+	static final int ISOLATED_MG = -10, ISOLATED_EG = -15;
+	static final int BACKWARD_MG = -8, BACKWARD_EG = -10;
+
+	private PawnStructure() {
+	}
+
+	/**
+	 * Adds the pawn structure score (White minus Black) to terms[0] (middlegame)
+	 * and terms[1] (endgame).
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param terms
+	 *            The middlegame and endgame totals to add to.
+	 */
+	public static void score(Chessboard.Chessmen[][] chessboard, int[] terms) {
+		int[] whiteFiles = new int[8];
+		int[] blackFiles = new int[8];
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				if (chessboard[i][j] == Chessboard.Chessmen.WHITE_PAWN) {
+					whiteFiles[j]++;
+				} else if (chessboard[i][j] == Chessboard.Chessmen.BLACK_PAWN) {
+					blackFiles[j]++;
+				}
+			}
+		}
+
+		for (int j = 0; j < 8; j++) {
+			int doubled = Math.max(0, whiteFiles[j] - 1) - Math.max(0, blackFiles[j] - 1);
+			terms[0] += doubled * DOUBLED_MG;
+			terms[1] += doubled * DOUBLED_EG;
+
+			int isolated = (hasNeighbour(whiteFiles, j) ? 0 : whiteFiles[j])
+					- (hasNeighbour(blackFiles, j) ? 0 : blackFiles[j]);
+			terms[0] += isolated * ISOLATED_MG;
+			terms[1] += isolated * ISOLATED_EG;
+		}
+
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				if (chessboard[i][j] == Chessboard.Chessmen.WHITE_PAWN) {
+					if (isPassed(chessboard, i, j, true)) {
+						terms[0] += PASSED_MG[i];
+						terms[1] += PASSED_EG[i];
+					}
+					if (hasNeighbour(whiteFiles, j) && isBackward(chessboard, i, j, true)) {
+						terms[0] += BACKWARD_MG;
+						terms[1] += BACKWARD_EG;
+					}
+				} else if (chessboard[i][j] == Chessboard.Chessmen.BLACK_PAWN) {
+					if (isPassed(chessboard, i, j, false)) {
+						terms[0] -= PASSED_MG[7 - i];
+						terms[1] -= PASSED_EG[7 - i];
+					}
+					if (hasNeighbour(blackFiles, j) && isBackward(chessboard, i, j, false)) {
+						terms[0] -= BACKWARD_MG;
+						terms[1] -= BACKWARD_EG;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean hasNeighbour(int[] files, int j) {
+		return (j > 0 && files[j - 1] > 0) || (j < 7 && files[j + 1] > 0);
+	}
+
+	/**
+	 * A pawn is passed if no enemy pawn stands ahead of it on its own file or
+	 * either neighbouring file.
+	 */
+	static boolean isPassed(Chessboard.Chessmen[][] chessboard, int i, int j, boolean white) {
+		Chessboard.Chessmen enemy = white ? Chessboard.Chessmen.BLACK_PAWN : Chessboard.Chessmen.WHITE_PAWN;
+		int step = white ? 1 : -1;
+		for (int r = i + step; r >= 0 && r < 8; r += step) {
+			for (int c = Math.max(0, j - 1); c <= Math.min(7, j + 1); c++) {
+				if (chessboard[r][c] == enemy) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A pawn is backward if every friendly pawn on the neighbouring files is
+	 * further advanced, so none can defend it, and the square in front of it is
+	 * attacked by an enemy pawn, so it cannot safely advance to join them.
+	 */
+	static boolean isBackward(Chessboard.Chessmen[][] chessboard, int i, int j, boolean white) {
+		Chessboard.Chessmen own = white ? Chessboard.Chessmen.WHITE_PAWN : Chessboard.Chessmen.BLACK_PAWN;
+		Chessboard.Chessmen enemy = white ? Chessboard.Chessmen.BLACK_PAWN : Chessboard.Chessmen.WHITE_PAWN;
+		int step = white ? 1 : -1;
+
+		// Any friendly neighbour level with or behind this pawn can support it.
+		for (int r = i; r >= 0 && r < 8; r -= step) {
+			if ((j > 0 && chessboard[r][j - 1] == own) || (j < 7 && chessboard[r][j + 1] == own)) {
+				return false;
+			}
+		}
+
+		int stop = i + step;
+		int attack = stop + step;
+		if (stop < 0 || stop > 7 || attack < 0 || attack > 7) {
+			return false;
+		}
+		return (j > 0 && chessboard[attack][j - 1] == enemy) || (j < 7 && chessboard[attack][j + 1] == enemy);
+	}
+}
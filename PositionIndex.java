@@ -0,0 +1,179 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The PositionIndex class answers "which games reached this position?" from an
+ * index written by PositionIndexBuilder. Each shard file is a sorted list of
+ * (position hash, game id) pairs, memory-mapped and searched in place, so
+ * opening an index reads nothing up front and lookups never box.
+ *
+ * Usage: java PositionIndex indexDir [move ...] prints the games that reached
+ * the position after the given moves.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class PositionIndex implements Closeable {
+
+	// A single mapping is limited to 2GB, so large shards are mapped in chunks
+	// of this many pairs.
+	private static final long PAIRS_PER_CHUNK = 1L << 26;
+
+	private final int shardBits;
+	private final FileChannel[] channels;
+	private final LongBuffer[][] chunks;
+	private final long[] pairs;
+
+	/**
+	 * Opens the index in the given directory.
+	 *
+	 * @param directory
+	 *            A directory written by PositionIndexBuilder.
+	 */
+	public PositionIndex(Path directory) throws IOException {
+		int shards = 0;
+		while (Files.exists(shardPath(directory, shards))) {
+			shards++;
+		}
+		if (Integer.bitCount(shards) != 1) {
+			throw new IOException("Not a complete position index: " + directory);
+		}
+		shardBits = Integer.numberOfTrailingZeros(shards);
+		channels = new FileChannel[shards];
+		chunks = new LongBuffer[shards][];
+		pairs = new long[shards];
+
+		try {
+			for (int shard = 0; shard < shards; shard++) {
+				FileChannel channel = FileChannel.open(shardPath(directory, shard), StandardOpenOption.READ);
+				channels[shard] = channel;
+				pairs[shard] = channel.size() / 16;
+				int count = (int) ((pairs[shard] + PAIRS_PER_CHUNK - 1) / PAIRS_PER_CHUNK);
+				chunks[shard] = new LongBuffer[count];
+				for (int c = 0; c < count; c++) {
+					long first = c * PAIRS_PER_CHUNK;
+					long length = Math.min(PAIRS_PER_CHUNK, pairs[shard] - first);
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, first * 16, length * 16);
+					chunks[shard][c] = map.asLongBuffer();
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	static Path shardPath(Path directory, int shard) {
+		return directory.resolve(String.format("shard-%05d.idx", shard));
+	}
+
+	private long hashAt(int shard, long pair) {
+		return chunks[shard][(int) (pair / PAIRS_PER_CHUNK)].get((int) (pair % PAIRS_PER_CHUNK) * 2);
+	}
+
+	private long gameAt(int shard, long pair) {
+		return chunks[shard][(int) (pair / PAIRS_PER_CHUNK)].get((int) (pair % PAIRS_PER_CHUNK) * 2 + 1);
+	}
+
+	/*
+	 * Binary search for the first pair in the shard whose hash is not less than
+	 * the given hash.
+	 */
+	private long lowerBound(int shard, long hash) {
+		long lo = 0, hi = pairs[shard];
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (Long.compareUnsigned(hashAt(shard, mid), hash) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return How many different games reached the position with the given hash.
+	 */
+	public long count(long hash) {
+		int shard = PositionIndexBuilder.shardOf(hash, shardBits);
+		long first = lowerBound(shard, hash);
+		long last = first;
+		while (last < pairs[shard] && hashAt(shard, last) == hash) {
+			last++;
+		}
+		return last - first;
+	}
+
+	/**
+	 * @return The ids of the games that reached the position with the given hash,
+	 *         in ascending order.
+	 */
+	public long[] games(long hash) {
+		int shard = PositionIndexBuilder.shardOf(hash, shardBits);
+		long first = lowerBound(shard, hash);
+		long[] ids = new long[16];
+		int size = 0;
+		for (long pair = first; pair < pairs[shard] && hashAt(shard, pair) == hash; pair++) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = gameAt(shard, pair);
+		}
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @return The number of (position, game) pairs in the index.
+	 */
+	public long size() {
+		long total = 0;
+		for (long count : pairs) {
+			total += count;
+		}
+		return total;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (FileChannel channel : channels) {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Looks up the position reached by playing the given moves from the start.
+	 *
+	 * @param args
+	 *            The index directory followed by the moves, White first.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java PositionIndex indexDir [move ...]");
+			System.exit(2);
+		}
+		Chessboard.Chessmen[][] chessboard = Chessboard.newBoard();
+		for (int k = 1; k < args.length; k++) {
+			Chessboard.move(chessboard, args[k]);
+		}
+		long hash = Zobrist.hash(chessboard, args.length % 2 == 1);
+
+		try (PositionIndex index = new PositionIndex(Paths.get(args[0]))) {
+			long[] ids = index.games(hash);
+			System.out.printf("Position %016x was reached in %d of the indexed games.%n", hash, ids.length);
+			for (int k = 0; k < ids.length && k < 100; k++) {
+				System.out.println(ids[k]);
+			}
+		}
+	}
+}
@@ -0,0 +1,432 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The PositionIndexBuilder class builds a PositionIndex: for every position
+ * reached in a collection of games, the ids of the games that reached it. Games
+ * are read in the archive format used by GameValidator, with each move parsed
+ * once into packed coordinates, and replayed on a CompactBoard. The Zobrist
+ * hash of the position after each move is updated from the pieces the move
+ * moves and captures rather than computed from the board.
+ *
+ * Replaying through Chessboard.move, as the index was first specified, would
+ * parse every move string again and rehash all 64 squares at every ply.
+ * CompactBoard.move places pieces exactly as Chessboard.move does, so the
+ * positions, and therefore the hashes, are the same; PositionIndexBuilderTest
+ * checks them against Chessboard.move and Zobrist.hash.
+ *
+ * The index is split into 2^shardBits shards by the top bits of the hash. Each
+ * shard collects (hash, game id) pairs in a pair of primitive long arrays; when
+ * they fill, the pairs are sorted and spilled to a run file on disk. Finishing
+ * the build frees the arrays and merges each shard's runs into one sorted file,
+ * at most fanIn runs at a time: a shard with more runs is merged in several
+ * passes. Both the arrays and the merge buffers are sized from the heap budget
+ * given to the builder, which is therefore all the heap the build needs however
+ * many positions there are, and the merge never holds more than fanIn + 1 files
+ * open.
+ *
+ * Usage: java PositionIndexBuilder games.tsv indexDir [heapBudgetMB] [shardBits]
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class PositionIndexBuilder {
+
+	/** The most bytes of buffer held by each file while runs are being merged. */
+	private static final int MERGE_BUFFER = 1 << 16;
+
+	/** The most runs merged at once, well below the usual limit on open files. */
+	public static final int MAX_FAN_IN = 128;
+
+	private final Path directory;
+	private final int shardBits;
+	private final int fanIn;
+	private final int mergeBuffer;
+	private final int[] sizes;
+	private final int[] runs;
+
+	// Released once everything is spilled, so the merge can use the budget.
+	private long[][] hashes;
+	private long[][] games;
+
+	private final CompactBoard initial = new CompactBoard(Chessboard.newBoard());
+	private final CompactBoard board = new CompactBoard();
+	private final long initialHash = Zobrist.hash(Chessboard.newBoard(), true);
+
+	private long positions;
+
+	/**
+	 * @param directory
+	 *            Where the index is written. Created if missing.
+	 * @param heapBudget
+	 *            The number of bytes the builder may use to buffer pairs.
+	 * @param shardBits
+	 *            log2 of the number of shards.
+	 */
+	public PositionIndexBuilder(Path directory, long heapBudget, int shardBits) throws IOException {
+		if (shardBits < 0 || shardBits > 16) {
+			throw new IllegalArgumentException("shardBits must be between 0 and 16: " + shardBits);
+		}
+		int shards = 1 << shardBits;
+		long perShard = heapBudget / shards / 16; // a hash and a game id per pair
+		if (perShard < 1024) {
+			throw new IllegalArgumentException("A heap budget of " + heapBudget + " bytes is too small for " + shards
+					+ " shards.");
+		}
+		int capacity = (int) Math.min(perShard, Integer.MAX_VALUE - 8);
+
+		Files.createDirectories(directory);
+		this.directory = directory;
+		this.shardBits = shardBits;
+		this.hashes = new long[shards][capacity];
+		this.games = new long[shards][capacity];
+		this.sizes = new int[shards];
+		this.runs = new int[shards];
+
+		// Each merge reads fanIn runs and writes one file, each through a buffer.
+		this.fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, heapBudget / MERGE_BUFFER - 1));
+		this.mergeBuffer = (int) Math.max(4096, Math.min(MERGE_BUFFER, heapBudget / (fanIn + 1)));
+	}
+
+	/**
+	 * Replays one game and adds every position it reaches. Replay stops at the
+	 * first move whose coordinates are off the board.
+	 *
+	 * @param gameId
+	 *            The id stored against each position.
+	 * @param moves
+	 *            The game's moves as players type them, White first.
+	 */
+	public void addGame(long gameId, String[] moves) throws IOException {
+		int[] packed = new int[moves.length];
+		for (int ply = 0; ply < moves.length; ply++) {
+			packed[ply] = GameValidator.pack(Chessboard.position(null, moves[ply]));
+		}
+		addGame(gameId, packed);
+	}
+
+	/**
+	 * Replays one game and adds every position it reaches. Replay stops at the
+	 * first move that is -1.
+	 *
+	 * @param gameId
+	 *            The id stored against each position.
+	 * @param moves
+	 *            The game's moves packed as by GameValidator.pack, White first.
+	 */
+	public void addGame(long gameId, int[] moves) throws IOException {
+		initial.copyInto(board);
+
+		long hash = initialHash;
+		for (int ply = 0; ply < moves.length && moves[ply] >= 0; ply++) {
+			int from = moves[ply] >> 6, to = moves[ply] & 63;
+			int initI = from >> 3, initJ = from & 7, finI = to >> 3, finJ = to & 7;
+
+			// Update the hash for the move rather than rehashing the board.
+			Chessboard.Chessmen moving = board.get(initI, initJ);
+			Chessboard.Chessmen captured = board.move(initI, initJ, finI, finJ);
+			hash ^= Zobrist.moveKey(moving, captured, initI, initJ, finI, finJ);
+
+			add(hash, gameId);
+		}
+	}
+
+	/**
+	 * Adds one (position hash, game id) pair.
+	 */
+	public void add(long hash, long gameId) throws IOException {
+		if (hashes == null) {
+			throw new IllegalStateException("The index has already been finished.");
+		}
+		int shard = shardOf(hash, shardBits);
+		int size = sizes[shard];
+		hashes[shard][size] = hash;
+		games[shard][size] = gameId;
+		sizes[shard] = ++size;
+		positions++;
+		if (size == hashes[shard].length) {
+			spill(shard);
+		}
+	}
+
+	static int shardOf(long hash, int shardBits) {
+		return shardBits == 0 ? 0 : (int) (hash >>> (64 - shardBits));
+	}
+
+	/*
+	 * Sorts a shard's buffered pairs, drops duplicates and writes them to a new run
+	 * file.
+	 */
+	private void spill(int shard) throws IOException {
+		int size = sizes[shard];
+		if (size == 0) {
+			return;
+		}
+		long[] h = hashes[shard];
+		long[] g = games[shard];
+		sortPairs(h, g, 0, size - 1);
+
+		Path run = runPath(shard, runs[shard]++);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(run), mergeBuffer))) {
+			for (int k = 0; k < size; k++) {
+				if (k > 0 && h[k] == h[k - 1] && g[k] == g[k - 1]) {
+					continue;
+				}
+				out.writeLong(h[k]);
+				out.writeLong(g[k]);
+			}
+		}
+		sizes[shard] = 0;
+	}
+
+	/**
+	 * Spills what is left in memory and merges each shard's runs into its final
+	 * sorted file, deleting the runs. No more pairs can be added afterwards.
+	 *
+	 * @return The number of pairs added, before duplicates were removed.
+	 */
+	public long finish() throws IOException {
+		for (int shard = 0; shard < sizes.length; shard++) {
+			spill(shard);
+		}
+		hashes = null;
+		games = null;
+		for (int shard = 0; shard < sizes.length; shard++) {
+			merge(shard);
+		}
+		return positions;
+	}
+
+	/*
+	 * Merges a shard's runs into its final file, first merging groups of fanIn
+	 * runs into longer runs for as many passes as it takes to get down to fanIn.
+	 */
+	private void merge(int shard) throws IOException {
+		List<Path> pending = new ArrayList<>();
+		for (int run = 0; run < runs[shard]; run++) {
+			pending.add(runPath(shard, run));
+		}
+		int next = runs[shard];
+		while (pending.size() > fanIn) {
+			List<Path> merged = new ArrayList<>();
+			for (int k = 0; k < pending.size(); k += fanIn) {
+				List<Path> group = pending.subList(k, Math.min(k + fanIn, pending.size()));
+				if (group.size() == 1) {
+					merged.add(group.get(0));
+					continue;
+				}
+				Path run = runPath(shard, next++);
+				mergeRuns(group, run);
+				merged.add(run);
+			}
+			pending = merged;
+		}
+		mergeRuns(pending, PositionIndex.shardPath(directory, shard));
+		runs[shard] = 0;
+	}
+
+	/*
+	 * k-way merge of sorted runs with a binary heap of run indices, ordered by
+	 * each run's current pair. The runs are deleted afterwards.
+	 */
+	private void mergeRuns(List<Path> runFiles, Path output) throws IOException {
+		int count = runFiles.size();
+		List<DataInputStream> inputs = new ArrayList<>(count);
+		long[] headHash = new long[count];
+		long[] headGame = new long[count];
+		int[] heap = new int[count];
+		int heapSize = 0;
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(output), mergeBuffer))) {
+			try {
+				for (int run = 0; run < count; run++) {
+					DataInputStream in = new DataInputStream(
+							new BufferedInputStream(Files.newInputStream(runFiles.get(run)), mergeBuffer));
+					inputs.add(in);
+					if (next(in, run, headHash, headGame)) {
+						heap[heapSize++] = run;
+						siftUp(heap, heapSize - 1, headHash, headGame);
+					}
+				}
+
+				boolean first = true;
+				long lastHash = 0, lastGame = 0;
+				while (heapSize > 0) {
+					int run = heap[0];
+					long h = headHash[run], g = headGame[run];
+					if (first || h != lastHash || g != lastGame) {
+						out.writeLong(h);
+						out.writeLong(g);
+						lastHash = h;
+						lastGame = g;
+						first = false;
+					}
+					if (!next(inputs.get(run), run, headHash, headGame)) {
+						heap[0] = heap[--heapSize];
+					}
+					siftDown(heap, heapSize, 0, headHash, headGame);
+				}
+			} finally {
+				for (DataInputStream in : inputs) {
+					in.close();
+				}
+			}
+		}
+
+		for (Path run : runFiles) {
+			Files.deleteIfExists(run);
+		}
+	}
+
+	private static boolean next(DataInputStream in, int run, long[] headHash, long[] headGame) throws IOException {
+		try {
+			headHash[run] = in.readLong();
+			headGame[run] = in.readLong();
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	private static boolean less(int a, int b, long[] headHash, long[] headGame) {
+		int c = Long.compareUnsigned(headHash[a], headHash[b]);
+		return c < 0 || (c == 0 && headGame[a] < headGame[b]);
+	}
+
+	private static void siftUp(int[] heap, int k, long[] headHash, long[] headGame) {
+		while (k > 0) {
+			int parent = (k - 1) >> 1;
+			if (!less(heap[k], heap[parent], headHash, headGame)) {
+				break;
+			}
+			int t = heap[k];
+			heap[k] = heap[parent];
+			heap[parent] = t;
+			k = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, int k, long[] headHash, long[] headGame) {
+		while (true) {
+			int child = 2 * k + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && less(heap[child + 1], heap[child], headHash, headGame)) {
+				child++;
+			}
+			if (!less(heap[child], heap[k], headHash, headGame)) {
+				return;
+			}
+			int t = heap[k];
+			heap[k] = heap[child];
+			heap[child] = t;
+			k = child;
+		}
+	}
+
+	/*
+	 * Sorts pairs (h[k], g[k]) by hash, compared unsigned so that the order matches
+	 * the shard order, and then by game id.
+	 */
+	static void sortPairs(long[] h, long[] g, int lo, int hi) {
+		while (hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			long pivotHash = h[mid], pivotGame = g[mid];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (comparePair(h[i], g[i], pivotHash, pivotGame) < 0) {
+					i++;
+				}
+				while (comparePair(h[j], g[j], pivotHash, pivotGame) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					long t = h[i];
+					h[i] = h[j];
+					h[j] = t;
+					t = g[i];
+					g[i] = g[j];
+					g[j] = t;
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller half so the stack stays shallow.
+			if (j - lo < hi - i) {
+				sortPairs(h, g, lo, j);
+				lo = i;
+			} else {
+				sortPairs(h, g, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			long th = h[i], tg = g[i];
+			int j = i - 1;
+			while (j >= lo && comparePair(h[j], g[j], th, tg) > 0) {
+				h[j + 1] = h[j];
+				g[j + 1] = g[j];
+				j--;
+			}
+			h[j + 1] = th;
+			g[j + 1] = tg;
+		}
+	}
+
+	private static int comparePair(long h1, long g1, long h2, long g2) {
+		int c = Long.compareUnsigned(h1, h2);
+		return c != 0 ? c : Long.compare(g1, g2);
+	}
+
+	private Path runPath(int shard, int run) {
+		return directory.resolve(String.format("shard-%05d.run-%06d", shard, run));
+	}
+
+	/**
+	 * Builds an index from the archive named by args[0] into the directory named
+	 * by args[1].
+	 *
+	 * @param args
+	 *            The archive, the index directory and optionally the heap budget in
+	 *            megabytes (default 256) and shardBits (default 8).
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java PositionIndexBuilder games.tsv indexDir [heapBudgetMB] [shardBits]");
+			System.exit(2);
+		}
+		long budget = (args.length > 2 ? Long.parseLong(args[2]) : 256) << 20;
+		int shardBits = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+		long start = System.nanoTime();
+		PositionIndexBuilder builder = new PositionIndexBuilder(Paths.get(args[1]), budget, shardBits);
+		long count = 0;
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				GameValidator.Game game = GameValidator.parse(line);
+				if (game != null) {
+					builder.addGame(game.id, game.moves);
+					count++;
+				}
+			}
+		}
+		long positions = builder.finish();
+		System.err.printf("Indexed %d positions from %d games in %.2f s.%n", positions, count,
+				(System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,102 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The StartupBenchmark class measures how long a new console game takes to
+ * accept its first move. Each run starts "java Chessboard" in a new process,
+ * types "e2 to e4" and times how long it takes, from starting the process, for
+ * the game to ask Player 2 for a move. That covers JVM startup, loading and
+ * initializing the game's classes, printing the board twice and checking the
+ * move.
+ *
+ * Any arguments after the number of runs are passed to the JVM under test, so
+ * the effect of e.g. a class data sharing archive can be compared:
+ *
+ * java StartupBenchmark 20
+ * java StartupBenchmark 20 -XX:SharedArchiveFile=chess.jsa
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class StartupBenchmark {
+
+	/** The first move typed in each run. */
+	public static final String FIRST_MOVE = "e2 to e4";
+
+	/** Printed by the game once the first move has been accepted. */
+	public static final String SECOND_PROMPT = "Player 2 (Black) move:";
+
+	/**
+	 * Starts one game and times its first move.
+	 *
+	 * @param jvmOptions
+	 *            Options for the JVM under test.
+	 * @return The time from starting the process to the second prompt, in
+	 *         nanoseconds.
+	 */
+	public static long timeFirstMove(List<String> jvmOptions) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("Chessboard");
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+
+		long start = System.nanoTime();
+		Process game = builder.start();
+		try (OutputStream in = game.getOutputStream();
+				BufferedReader out = new BufferedReader(
+						new InputStreamReader(game.getInputStream(), StandardCharsets.UTF_8))) {
+			in.write((FIRST_MOVE + "\n").getBytes(StandardCharsets.UTF_8));
+			in.flush();
+
+			String line;
+			while ((line = out.readLine()) != null) {
+				if (line.equals(SECOND_PROMPT)) {
+					long elapsed = System.nanoTime() - start;
+					in.write("exit\n".getBytes(StandardCharsets.UTF_8));
+					in.flush();
+					return elapsed;
+				}
+			}
+			throw new IllegalStateException("The game ended without accepting " + FIRST_MOVE + ".");
+		} finally {
+			if (!game.waitFor(10, TimeUnit.SECONDS)) {
+				game.destroyForcibly();
+			}
+		}
+	}
+
+	/**
+	 * Times the first move over a number of runs and prints the spread.
+	 *
+	 * @param args
+	 *            The number of runs (default 10), then options for the JVM under
+	 *            test.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		List<String> jvmOptions = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+
+		timeFirstMove(jvmOptions); // Warms the file system cache; not counted.
+		long[] nanos = new long[runs];
+		for (int run = 0; run < runs; run++) {
+			nanos[run] = timeFirstMove(jvmOptions);
+		}
+		Arrays.sort(nanos);
+		System.out.printf("time to first move over %d runs%s: min %.1f ms, median %.1f ms, max %.1f ms%n", runs,
+				jvmOptions.isEmpty() ? "" : " with " + String.join(" ", jvmOptions), nanos[0] / 1e6,
+				nanos[runs / 2] / 1e6, nanos[runs - 1] / 1e6);
+	}
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+/**
+ * The TranspositionTable class caches search results by the Zobrist hash of
+ * the position searched: the score, whether it is exact or only a bound, the
+ * depth it was searched to and the best move found. A search that reaches a
+ * position again, by another order of moves or in a later search, can reuse
+ * the result or at least try the best move first.
+ *
+ * Like PawnHashTable, the table is a fixed number of slots in primitive arrays
+ * and a new entry always replaces the old one. It may be shared by searches
+ * that run one after another, but not by searches running at the same time.
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class TranspositionTable {
+
+	/** Returned by probe when the position is not in the table. */
+	public static final long MISS = Long.MIN_VALUE;
+
+	public static final int EXACT = 0, LOWER_BOUND = 1, UPPER_BOUND = 2;
+
+	/** The default number of slots (1M slots use 16MB). */
+	public static final int DEFAULT_SIZE = 1 << 20;
+
+	/*
+	 * Each entry packs the score into bits 0-31, the move plus one into bits
+	 * 32-44 (0 meaning no move), the depth into bits 45-52 and the bound type into
+	 * bits 53-54.
+	 */
+	private final long[] keys;
+	private final long[] entries;
+	private final int mask;
+
+	private long probes;
+	private long hits;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param size
+	 *            The number of slots. Rounded up to a power of two.
+	 */
+	public TranspositionTable(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Transposition table size must be positive: " + size);
+		}
+		int slots = Integer.highestOneBit(size);
+		if (slots < size) {
+			slots <<= 1;
+		}
+		keys = new long[slots];
+		entries = new long[slots];
+		mask = slots - 1;
+	}
+
+	public TranspositionTable() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * @return The entry for the position (see score, move, depth and bound), or
+	 *         MISS.
+	 */
+	public long probe(long hash) {
+		probes++;
+		int slot = (int) hash & mask;
+		if (keys[slot] == hash && entries[slot] != 0L) {
+			hits++;
+			return entries[slot];
+		}
+		return MISS;
+	}
+
+	/**
+	 * Stores a search result, replacing whatever was in its slot.
+	 *
+	 * @param move
+	 *            The best move found, or -1 if there was none.
+	 */
+	public void store(long hash, int depth, int bound, int score, int move) {
+		int slot = (int) hash & mask;
+		keys[slot] = hash;
+		entries[slot] = (score & 0xFFFFFFFFL) | ((long) (move + 1) & 0x1FFF) << 32
+				| ((long) Math.min(depth, 255)) << 45 | ((long) bound) << 53;
+	}
+
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * @return The best move, or -1 if none was stored.
+	 */
+	public static int move(long entry) {
+		return (int) ((entry >>> 32) & 0x1FFF) - 1;
+	}
+
+	public static int depth(long entry) {
+		return (int) ((entry >>> 45) & 0xFF);
+	}
+
+	public static int bound(long entry) {
+		return (int) ((entry >>> 53) & 0x3);
+	}
+
+	/**
+	 * @return The fraction of probes that found their position, between 0 and 1.
+	 */
+	public double hitRate() {
+		return probes == 0 ? 0.0 : (double) hits / probes;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		Arrays.fill(entries, 0L);
+		probes = hits = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TranspositionTable[slots=%d probes=%d hitRate=%.1f%%]", keys.length, probes,
+				100.0 * hitRate());
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.SplittableRandom;
+
+/**
+ * The Zobrist class holds the random keys used to hash chess positions. A
+ * position's hash is the exclusive-or of one key per piece on the board (plus
+ * a key for Black to move), so it can be updated in a couple of operations
+ * whenever a piece moves instead of being recomputed from the whole board.
+ * 
+ * The keys come from a fixed seed, so hashes are the same in every run and can
+ * be stored on disk.
+ * 
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class Zobrist {
+
+	private static final long SEED = 0x43686573734B6579L;
+
+	/** Keys indexed by Chessmen ordinal and then by square (i * 8 + j). */
+	private static final long[][] PIECE_SQUARE = new long[12][64];
+
+	/** Included in the hash when it is Black's (Player 2's) turn. */
+	public static final long BLACK_TO_MOVE;
+
+	static {
+		SplittableRandom random = new SplittableRandom(SEED);
+		for (int piece = 0; piece < 12; piece++) {
+			for (int square = 0; square < 64; square++) {
+				PIECE_SQUARE[piece][square] = random.nextLong();
+			}
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * @return The key for the given piece on row i, column j. EMPTY squares have
+	 *         the key 0.
+	 */
+	public static long key(Chessboard.Chessmen piece, int i, int j) {
+		if (piece == Chessboard.Chessmen.EMPTY) {
+			return 0L;
+		}
+		return PIECE_SQUARE[piece.ordinal()][i * 8 + j];
+	}
+
+	/**
+	 * @return What to exclusive-or into a position's hash when moving moves from
+	 *         row initI, column initJ to row finI, column finJ, taking captured
+	 *         (or EMPTY), and the turn passes. Undoing the move takes the same
+	 *         key.
+	 */
+	public static long moveKey(Chessboard.Chessmen moving, Chessboard.Chessmen captured, int initI, int initJ,
+			int finI, int finJ) {
+		return key(moving, initI, initJ) ^ key(captured, finI, finJ) ^ key(moving, finI, finJ) ^ BLACK_TO_MOVE;
+	}
+
+	/**
+	 * Hashes a whole position.
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @param whiteToMove
+	 *            true if it is White's (Player 1's) turn.
+	 * @return The Zobrist hash of the position.
+	 */
+	public static long hash(Chessboard.Chessmen[][] chessboard, boolean whiteToMove) {
+		long hash = whiteToMove ? 0L : BLACK_TO_MOVE;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				hash ^= key(chessboard[i][j], i, j);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes only the pawns of a position. Positions with the same pawns share a
+	 * pawn structure score.
+	 * 
+	 * @param chessboard
+	 *            An 8x8 array of chessmen. The current situation of the game.
+	 * @return The Zobrist hash of the pawns alone.
+	 */
+	public static long pawnHash(Chessboard.Chessmen[][] chessboard) {
+		long hash = 0L;
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				if (isPawn(chessboard[i][j])) {
+					hash ^= key(chessboard[i][j], i, j);
+				}
+			}
+		}
+		return hash;
+	}
+
+	static boolean isPawn(Chessboard.Chessmen piece) {
+		return piece == Chessboard.Chessmen.WHITE_PAWN || piece == Chessboard.Chessmen.BLACK_PAWN;
+	}
+}
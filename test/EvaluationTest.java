@@ -0,0 +1,97 @@
+import java.util.SplittableRandom;
+
+/**
+ * Tests that an Evaluation kept up to date move by move agrees with one
+ * computed from the whole board.
+ *
+ * Usage: java EvaluationTest (exits with status 1 if a test fails)
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class EvaluationTest {
+
+	private static final int GAMES = 300;
+	private static final int MAX_PLIES = 80;
+
+	public static void main(String[] args) {
+		incrementalMatchesFresh(new SplittableRandom(27));
+		System.out.println("EvaluationTest passed.");
+	}
+
+	/*
+	 * Plays random legal games through Chessboard.move with an Evaluation. Before
+	 * each move, a different legal move is also made and undone with onMove and
+	 * onUndo, as a search would. Every position reached must evaluate exactly as
+	 * a fresh Evaluation of it does.
+	 */
+	static void incrementalMatchesFresh(SplittableRandom random) {
+		LegalMoves legalMoves = new LegalMoves();
+		for (int game = 0; game < GAMES; game++) {
+			Chessboard.Chessmen[][] board = Chessboard.newBoard();
+			Evaluation evaluation = new Evaluation(board);
+			boolean white = true;
+			for (int ply = 0; ply < MAX_PLIES; ply++) {
+				legalMoves.compute(board, white);
+				if (legalMoves.count() == 0) {
+					break;
+				}
+
+				int tried = pick(legalMoves, random);
+				int from = tried >> 6, to = tried & 63;
+				int initI = from >> 3, initJ = from & 7, finI = to >> 3, finJ = to & 7;
+				Chessboard.Chessmen moving = board[initI][initJ];
+				Chessboard.Chessmen captured = board[finI][finJ];
+				evaluation.onMove(moving, initI, initJ, captured, finI, finJ);
+				board[finI][finJ] = moving;
+				board[initI][initJ] = Chessboard.Chessmen.EMPTY;
+				agrees(evaluation, board, !white, "after onMove in game " + game + ", ply " + ply);
+				evaluation.onUndo(moving, initI, initJ, captured, finI, finJ);
+				board[initI][initJ] = moving;
+				board[finI][finJ] = captured;
+				agrees(evaluation, board, white, "after onUndo in game " + game + ", ply " + ply);
+
+				int played = pick(legalMoves, random);
+				from = played >> 6;
+				to = played & 63;
+				Chessboard.move(board, Chessboard.square(from >> 3, from & 7) + " to "
+						+ Chessboard.square(to >> 3, to & 7), evaluation);
+				white = !white;
+				agrees(evaluation, board, white, "after Chessboard.move in game " + game + ", ply " + ply);
+			}
+		}
+	}
+
+	private static void agrees(Evaluation evaluation, Chessboard.Chessmen[][] board, boolean white, String where) {
+		Evaluation fresh = new Evaluation(board);
+		check(evaluation.evaluate(board, white) == fresh.evaluate(board, white), "evaluate " + where);
+		check(evaluation.phase() == fresh.phase(), "phase " + where);
+		check(evaluation.pawnKey() == Zobrist.pawnHash(board), "pawnKey " + where);
+	}
+
+	/*
+	 * A random legal move, packed as from * 64 + to.
+	 */
+	private static int pick(LegalMoves legalMoves, SplittableRandom random) {
+		int n = random.nextInt(legalMoves.count());
+		for (int from = 0;; from++) {
+			long mask = legalMoves.destinations(from >> 3, from & 7);
+			int bits = Long.bitCount(mask);
+			if (n >= bits) {
+				n -= bits;
+				continue;
+			}
+			for (; n > 0; n--) {
+				mask &= mask - 1;
+			}
+			return from << 6 | Long.numberOfTrailingZeros(mask);
+		}
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			System.exit(1);
+		}
+	}
+}
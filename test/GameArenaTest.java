@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests that GameArena charges the mover's clock, catches stale handles, and
+ * keeps every game consistent when many threads play in the same games.
+ *
+ * Usage: java GameArenaTest (exits with status 1 if a test fails)
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameArenaTest {
+
+	private static final long CLOCK = 5 * 60 * 1000;
+	private static final long MOVE_MILLIS = 1000;
+
+	public static void main(String[] args) throws InterruptedException {
+		chargesTheMover();
+		staleHandleIsCaught();
+		threadsSharingGamesKeepThemConsistent(4000, 40, 8);
+		System.out.println("GameArenaTest passed.");
+	}
+
+	static void chargesTheMover() {
+		GameArena arena = new GameArena(1);
+		long game = arena.newGame(CLOCK);
+		check(arena.apply(game, "e2 to e4", 1500) == Chessboard.RuleCheck.LEGAL, "e2 to e4 is legal");
+		check(arena.clock(game, true) == CLOCK - 1500, "White is charged for White's move");
+		check(arena.clock(game, false) == CLOCK, "Black is not charged for White's move");
+		check(arena.apply(game, "e2 to e4", 700) != Chessboard.RuleCheck.LEGAL, "Black cannot move a white pawn");
+		check(arena.clock(game, false) == CLOCK, "a rejected move is not charged");
+	}
+
+	static void staleHandleIsCaught() {
+		GameArena arena = new GameArena(1);
+		long game = arena.newGame(CLOCK);
+		arena.free(game);
+		long reused = arena.newGame(CLOCK);
+		check(!arena.isLive(game) && arena.isLive(reused), "only the new handle is live");
+		try {
+			arena.ply(game);
+			check(false, "a freed handle is rejected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	/*
+	 * Every thread plays random moves in every game, so moves in one game come
+	 * from many threads. Whatever the interleaving, each game's hash must match
+	 * its board, its clocks must match its ply, and no played move may be lost.
+	 */
+	static void threadsSharingGamesKeepThemConsistent(int games, int moves, int threads)
+			throws InterruptedException {
+		GameArena arena = new GameArena(games);
+		long[] handles = new long[games];
+		for (int g = 0; g < games; g++) {
+			handles[g] = arena.newGame(CLOCK);
+		}
+
+		AtomicLong played = new AtomicLong();
+		List<Thread> players = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			long seed = t + 1;
+			Thread player = new Thread(() -> played.addAndGet(play(arena, handles, moves, seed)));
+			players.add(player);
+			player.start();
+		}
+		for (Thread player : players) {
+			player.join();
+		}
+
+		long plies = 0;
+		Chessboard.Chessmen[][] board = new Chessboard.Chessmen[8][8];
+		for (long handle : handles) {
+			int ply = arena.ply(handle);
+			plies += ply;
+			arena.copyTo(handle, board);
+			check(arena.whiteToMove(handle) == (ply % 2 == 0), "the side to move follows the ply");
+			check(arena.hash(handle) == Zobrist.hash(board, arena.whiteToMove(handle)),
+					"the hash of game " + handle + " matches its board");
+			check(arena.clock(handle, true) == CLOCK - MOVE_MILLIS * ((ply + 1) / 2),
+					"White's clock in game " + handle + " matches its " + ply + " plies");
+			check(arena.clock(handle, false) == CLOCK - MOVE_MILLIS * (ply / 2),
+					"Black's clock in game " + handle + " matches its " + ply + " plies");
+		}
+		check(plies == played.get(), plies + " plies in the games, but " + played.get() + " moves played");
+	}
+
+	/*
+	 * Tries moves rounds of one random legal move in each game. Another thread may
+	 * move in between, so a move can be rejected; returns the number played.
+	 */
+	private static long play(GameArena arena, long[] handles, int moves, long seed) {
+		LegalMoves legalMoves = new LegalMoves();
+		SplittableRandom random = new SplittableRandom(seed);
+		long played = 0;
+		for (int round = 0; round < moves; round++) {
+			for (long handle : handles) {
+				arena.legalMoves(handle, legalMoves);
+				if (legalMoves.count() == 0) {
+					continue;
+				}
+				int n = random.nextInt(legalMoves.count());
+				for (int from = 0; from < 64; from++) {
+					long mask = legalMoves.destinations(from >> 3, from & 7);
+					int bits = Long.bitCount(mask);
+					if (n >= bits) {
+						n -= bits;
+						continue;
+					}
+					for (; n > 0; n--) {
+						mask &= mask - 1;
+					}
+					int to = Long.numberOfTrailingZeros(mask);
+					if (arena.apply(handle, from >> 3, from & 7, to >> 3, to & 7,
+							MOVE_MILLIS) == Chessboard.RuleCheck.LEGAL) {
+						played++;
+					}
+					break;
+				}
+			}
+		}
+		return played;
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests that GameStore recovers moves after a crash, i.e. when it is reopened
+ * without having been closed.
+ *
+ * Usage: java GameStoreTest (exits with status 1 if a test fails)
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameStoreTest {
+
+	public static void main(String[] args) throws Exception {
+		quietGameIsSyncedWithinSyncMillis();
+		System.out.println("GameStoreTest passed.");
+	}
+
+	/*
+	 * A move followed by no other move must still reach the journal once
+	 * syncMillis has passed, without close or an explicit sync.
+	 */
+	static void quietGameIsSyncedWithinSyncMillis() throws IOException, InterruptedException {
+		Path dir = Files.createTempDirectory("game-store-test");
+		GameStore store = GameStore.open(dir, 100, 10, 1000);
+		store.newGame(7);
+		store.apply(7, 1, 4, 3, 4); // e2 to e4
+		Thread.sleep(200);
+
+		check(Files.size(GameJournal.segmentPath(dir, 0)) == 2 * GameJournal.RECORD_BYTES,
+				"both records are in the segment file");
+
+		// The first store is abandoned, as if the process had died.
+		try (GameStore recovered = GameStore.open(dir, 100, 10, 1000)) {
+			check(recovered.contains(7), "the game is recovered");
+			check(recovered.ply(7) == 1, "the move is recovered");
+			check(recovered.board(7).get(3, 4) == Chessboard.Chessmen.WHITE_PAWN, "the pawn is on e4");
+		}
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			System.exit(1);
+		}
+	}
+}
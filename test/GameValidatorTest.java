@@ -0,0 +1,123 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that GameValidator reports a failing stage instead of hanging.
+ *
+ * Usage: java GameValidatorTest (exits with status 1 if a test fails)
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class GameValidatorTest {
+
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	public static void main(String[] args) throws Exception {
+		for (int run = 0; run < 6; run++) {
+			failingWriterFailsTheRun();
+			failingReaderFailsTheRun();
+		}
+		reportsIllegalMoves();
+		System.out.println("GameValidatorTest passed.");
+	}
+
+	/*
+	 * Every move is illegal, so the writer has far more to write than the queues
+	 * hold when it fails.
+	 */
+	static void failingWriterFailsTheRun() throws Exception {
+		Writer out = new Writer() {
+			private int writes;
+
+			@Override
+			public void write(char[] buffer, int offset, int length) throws IOException {
+				if (++writes > 10) {
+					throw new IOException("disk full");
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Throwable thrown = run(new BufferedReader(illegalGames(200000)), out);
+		check(thrown instanceof IOException && "disk full".equals(thrown.getMessage()),
+				"a failing writer fails the run, got " + thrown);
+	}
+
+	static void failingReaderFailsTheRun() throws Exception {
+		Reader games = illegalGames(200000);
+		Reader in = new Reader() {
+			private long chars;
+
+			@Override
+			public int read(char[] buffer, int offset, int length) throws IOException {
+				chars += length;
+				if (chars > 100000) {
+					throw new IOException("malformed input");
+				}
+				return games.read(buffer, offset, length);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Throwable thrown = run(new BufferedReader(in), new StringWriter());
+		check(thrown instanceof IOException && "malformed input".equals(thrown.getMessage()),
+				"a failing reader fails the run, got " + thrown);
+	}
+
+	static void reportsIllegalMoves() throws Exception {
+		StringWriter out = new StringWriter();
+		GameValidator.Summary summary = new GameValidator(2, 3).run(
+				new BufferedReader(new StringReader("1\te2 to e4\te7 to e5\n2\te2 to e5\n")), out);
+		check(summary.games == 2 && summary.moves == 3 && summary.illegal == 1, "summary " + summary);
+		check(out.toString().startsWith("2\t0\te2 to e5\tPAWN_MOVE\t"), "report " + out);
+	}
+
+	/*
+	 * Runs a validator and returns what it threw, failing the test if it does not
+	 * return in time.
+	 */
+	private static Throwable run(BufferedReader in, Writer out) throws InterruptedException {
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+		Thread runner = new Thread(() -> {
+			try {
+				new GameValidator(2, 4).run(in, out);
+			} catch (Throwable e) {
+				thrown.set(e);
+			}
+		});
+		runner.setDaemon(true);
+		runner.start();
+		runner.join(TIMEOUT_MILLIS);
+		check(!runner.isAlive(), "run returns after a stage fails");
+		return thrown.get();
+	}
+
+	private static Reader illegalGames(int count) {
+		StringBuilder games = new StringBuilder(count * 16);
+		for (int id = 0; id < count; id++) {
+			games.append(id).append("\ta1 to a1\n"); // Never legal: the rook stays put.
+		}
+		return new StringReader(games.toString());
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			System.exit(1);
+		}
+	}
+}
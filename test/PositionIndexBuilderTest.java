@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * Tests that PositionIndexBuilder writes the same index whether its runs are
+ * merged in one pass or in many, and that the index holds exactly the positions
+ * Chessboard.move reaches.
+ *
+ * Usage: java PositionIndexBuilderTest (exits with status 1 if a test fails)
+ *
+ * @author agent
+ * @version Created 19/10/26
+ */
+public class PositionIndexBuilderTest {
+
+	private static final int GAMES = 3000;
+	private static final int MAX_PLIES = 80;
+	private static final int SHARD_BITS = 1;
+
+	public static void main(String[] args) throws IOException {
+		String[][] games = randomGames(new SplittableRandom(26), GAMES);
+		Map<Long, TreeSet<Long>> expected = replay(games);
+
+		// 2048 pairs per run, merged two at a time: dozens of runs and several passes
+		// per shard.
+		Path multiPass = build(games, 64 << 10);
+		// Room for every pair in memory: one run per shard, merged in one pass.
+		Path singlePass = build(games, 64 << 20);
+
+		for (int shard = 0; shard < 1 << SHARD_BITS; shard++) {
+			check(Files.mismatch(PositionIndex.shardPath(multiPass, shard),
+					PositionIndex.shardPath(singlePass, shard)) == -1,
+					"shard " + shard + " is the same after a multi-pass merge");
+		}
+		try (DirectoryStream<Path> runs = Files.newDirectoryStream(multiPass, "*.run-*")) {
+			check(!runs.iterator().hasNext(), "the runs are deleted");
+		}
+
+		long pairs = 0;
+		try (PositionIndex index = new PositionIndex(multiPass)) {
+			for (Map.Entry<Long, TreeSet<Long>> position : expected.entrySet()) {
+				long[] ids = index.games(position.getKey());
+				check(ids.length == position.getValue().size(), "the games of position " + position.getKey());
+				int k = 0;
+				for (long id : position.getValue()) {
+					check(ids[k++] == id, "the games of position " + position.getKey());
+				}
+				pairs += ids.length;
+			}
+			check(index.size() == pairs, "the index holds " + pairs + " pairs, not " + index.size());
+		}
+		System.out.println("PositionIndexBuilderTest passed.");
+	}
+
+	private static Path build(String[][] games, long heapBudget) throws IOException {
+		Path dir = Files.createTempDirectory("position-index-test");
+		PositionIndexBuilder builder = new PositionIndexBuilder(dir, heapBudget, SHARD_BITS);
+		for (int id = 0; id < games.length; id++) {
+			builder.addGame(id, games[id]);
+		}
+		builder.finish();
+		return dir;
+	}
+
+	/*
+	 * The game ids that reached each position, found the slow way: by playing the
+	 * moves with Chessboard.move and hashing the whole board after each.
+	 */
+	private static Map<Long, TreeSet<Long>> replay(String[][] games) {
+		Map<Long, TreeSet<Long>> positions = new HashMap<>();
+		for (int id = 0; id < games.length; id++) {
+			Chessboard.Chessmen[][] board = Chessboard.newBoard();
+			boolean white = true;
+			for (String move : games[id]) {
+				Chessboard.move(board, move);
+				white = !white;
+				positions.computeIfAbsent(Zobrist.hash(board, white), hash -> new TreeSet<>()).add((long) id);
+			}
+		}
+		return positions;
+	}
+
+	/*
+	 * Random games of legal moves, as players type them.
+	 */
+	static String[][] randomGames(SplittableRandom random, int count) {
+		String[][] games = new String[count][];
+		LegalMoves legalMoves = new LegalMoves();
+		for (int id = 0; id < count; id++) {
+			Chessboard.Chessmen[][] board = Chessboard.newBoard();
+			String[] moves = new String[MAX_PLIES];
+			int plies = 0;
+			boolean white = true;
+			while (plies < MAX_PLIES) {
+				legalMoves.compute(board, white);
+				if (legalMoves.count() == 0) {
+					break;
+				}
+				int pick = random.nextInt(legalMoves.count());
+				String move = null;
+				for (int from = 0; move == null; from++) {
+					long mask = legalMoves.destinations(from >> 3, from & 7);
+					if (pick < Long.bitCount(mask)) {
+						for (; pick > 0; pick--) {
+							mask &= mask - 1;
+						}
+						int to = Long.numberOfTrailingZeros(mask);
+						move = Chessboard.square(from >> 3, from & 7) + " to " + Chessboard.square(to >> 3, to & 7);
+					} else {
+						pick -= Long.bitCount(mask);
+					}
+				}
+				Chessboard.move(board, move);
+				moves[plies++] = move;
+				white = !white;
+			}
+			games[id] = Arrays.copyOf(moves, plies);
+		}
+		return games;
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			System.exit(1);
+		}
+	}
+}